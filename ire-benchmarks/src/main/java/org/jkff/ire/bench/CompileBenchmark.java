@@ -0,0 +1,34 @@
+package org.jkff.ire.bench;
+
+import org.jkff.ire.PatternSet;
+import org.jkff.ire.regex.RegexCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling pattern sets of growing size; dominated by NFA state
+ * reduction (RegexCompiler.groupEquivalentStates).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+    @Param({"8", "32", "128", "256"})
+    public int patternCount;
+
+    public String[] regexes;
+
+    @Setup
+    public void setUp() {
+        regexes = Patterns.randomDNA(patternCount);
+    }
+
+    @Benchmark
+    public PatternSet compile() {
+        return RegexCompiler.compile(regexes);
+    }
+}
@@ -0,0 +1,56 @@
+package org.jkff.ire.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Input texts for the benchmarks.
+ *
+ * "dna" is the same 50000-char sequence that IntegrationTest uses,
+ * repeated to the requested size; "random-dna" is a seeded uniform
+ * sequence over the same alphabet, which has far fewer matches.
+ */
+public class Corpus {
+    private static final String DNA = loadDNA();
+
+    public static String get(final String name, final int size) {
+        if ("dna".equals(name)) {
+            return repeat(DNA, size);
+        } else if ("random-dna".equals(name)) {
+            return randomDNA(size);
+        } else {
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+    }
+
+    private static String repeat(final String s, final int size) {
+        final StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append(s, 0, Math.min(s.length(), size - sb.length()));
+        }
+        return sb.toString();
+    }
+
+    private static String randomDNA(final int size) {
+        final Random r = new Random(42);
+        final char[] res = new char[size];
+        for (int i = 0; i < size; ++i) {
+            res[i] = "acgt".charAt(r.nextInt(4));
+        }
+        return new String(res);
+    }
+
+    private static String loadDNA() {
+        try (final InputStream in = Corpus.class.getResourceAsStream("dna.txt.gz")) {
+            return new LineNumberReader(
+                   new InputStreamReader(
+                   new GZIPInputStream(in), "US-ASCII")).readLine().toLowerCase();
+        } catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
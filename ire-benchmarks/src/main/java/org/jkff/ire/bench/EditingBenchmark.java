@@ -0,0 +1,66 @@
+package org.jkff.ire.bench;
+
+import org.jkff.ire.IndexedString;
+import org.jkff.ire.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The "incremental" operations: append, splitBefore and subSequence
+ * on indexed strings that were built in advance.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EditingBenchmark {
+    @State(Scope.Benchmark)
+    public static class Halves {
+        public IndexedString ropeLeft, ropeRight;
+        public IndexedString linearLeft, linearRight;
+        public int mid;
+
+        @Setup
+        public void setUp(final IndexState s) {
+            mid = s.text.length() / 2;
+            final Pair<IndexedString, IndexedString> r = s.rope.splitBefore(mid);
+            ropeLeft = r.first;
+            ropeRight = r.second;
+            final Pair<IndexedString, IndexedString> l = s.linear.splitBefore(mid);
+            linearLeft = l.first;
+            linearRight = l.second;
+        }
+    }
+
+    @Benchmark
+    public IndexedString ropeAppend(final Halves h) {
+        return h.ropeLeft.append(h.ropeRight);
+    }
+
+    @Benchmark
+    public Pair<IndexedString, IndexedString> ropeSplitBefore(final IndexState s, final Halves h) {
+        return s.rope.splitBefore(h.mid);
+    }
+
+    @Benchmark
+    public IndexedString ropeSubSequence(final IndexState s, final Halves h) {
+        return s.rope.subSequence(h.mid / 2, h.mid + h.mid / 2);
+    }
+
+    @Benchmark
+    public IndexedString linearAppend(final Halves h) {
+        return h.linearLeft.append(h.linearRight);
+    }
+
+    @Benchmark
+    public Pair<IndexedString, IndexedString> linearSplitBefore(final IndexState s, final Halves h) {
+        return s.linear.splitBefore(h.mid);
+    }
+
+    @Benchmark
+    public IndexedString linearSubSequence(final IndexState s, final Halves h) {
+        return s.linear.subSequence(h.mid / 2, h.mid + h.mid / 2);
+    }
+}
@@ -0,0 +1,52 @@
+package org.jkff.ire.bench;
+
+import org.jkff.ire.DFARopePatternSet;
+import org.jkff.ire.IndexedString;
+import org.jkff.ire.LinearIS;
+import org.jkff.ire.regex.RegexCompiler;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compiled patterns, input text and pre-built indexes shared by the benchmarks.
+ */
+@State(Scope.Benchmark)
+public class IndexState {
+    @Param({"dna", "random-dna"})
+    public String corpus;
+
+    @Param({"50000", "1000000"})
+    public int inputSize;
+
+    @Param({"32", "128", "512"})
+    public int blockSize;
+
+    @Param({"1", "4", "8"})
+    public int patternCount;
+
+    public String[] regexes;
+    public String text;
+    public DFARopePatternSet patterns;
+    public Pattern[] javaPatterns;
+
+    public IndexedString rope;
+    public IndexedString linear;
+
+    @Setup
+    public void setUp() {
+        regexes = Patterns.dna(patternCount);
+        text = Corpus.get(corpus, inputSize);
+        patterns = (DFARopePatternSet) RegexCompiler.compile(regexes);
+        javaPatterns = new Pattern[regexes.length];
+        for (int i = 0; i < regexes.length; ++i) {
+            javaPatterns[i] = Pattern.compile(regexes[i]);
+        }
+
+        rope = patterns.match(text, blockSize);
+        linear = new LinearIS<>(text, patterns.getBiDFA());
+    }
+}
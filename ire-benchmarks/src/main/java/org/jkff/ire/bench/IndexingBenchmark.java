@@ -0,0 +1,35 @@
+package org.jkff.ire.bench;
+
+import org.jkff.ire.IndexedString;
+import org.jkff.ire.LinearIS;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building an index over the whole input: PatternSet.match for ropes
+ * (sequentially and in the common fork-join pool),
+ * the LinearIS constructor for the linear representation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingBenchmark {
+    @Benchmark
+    public IndexedString rope(final IndexState s) {
+        return s.patterns.match(s.text, s.blockSize);
+    }
+
+    @Benchmark
+    public IndexedString ropeParallel(final IndexState s) {
+        return s.patterns.match(s.text, s.blockSize, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public IndexedString linear(final IndexState s) {
+        return new LinearIS<>(s.text, s.patterns.getBiDFA());
+    }
+}
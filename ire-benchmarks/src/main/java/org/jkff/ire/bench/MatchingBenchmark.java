@@ -0,0 +1,50 @@
+package org.jkff.ire.bench;
+
+import org.jkff.ire.IndexedString;
+import org.jkff.ire.Match;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Enumerating all matches of an already indexed string, with java.util.regex
+ * finding the same matches over the plain text as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatchingBenchmark {
+    @Benchmark
+    public int rope(final IndexState s) {
+        return countMatches(s.rope);
+    }
+
+    @Benchmark
+    public int linear(final IndexState s) {
+        return countMatches(s.linear);
+    }
+
+    @Benchmark
+    public int javaRegex(final IndexState s) {
+        int res = 0;
+        for (final Pattern p : s.javaPatterns) {
+            final Matcher m = p.matcher(s.text);
+            for (int start = 0; m.find(start); start = m.start() + 1) {
+                ++res;
+            }
+        }
+        return res;
+    }
+
+    private static int countMatches(final IndexedString is) {
+        int res = 0;
+        for (final Match m : is.getMatches()) {
+            ++res;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,57 @@
+package org.jkff.ire.bench;
+
+import java.util.Random;
+
+/**
+ * Pattern sets for the benchmarks: a prefix of the regexes from
+ * IntegrationTest.testDNA, cycled if more are requested;
+ * or any number of distinct random ones in the same style.
+ */
+public class Patterns {
+    private static final String[] DNA_REGEXES = {
+            "[cgt]gggtaaa|tttaccc[acg]",
+            "a[act]ggtaaa|tttacc[agt]t",
+            "ag[act]gtaaa|tttac[agt]ct",
+            "agg[act]taaa|ttta[agt]cct",
+            "aggg[acg]aaa|ttt[cgt]ccct",
+            "agggt[cgt]aa|tt[acg]accct",
+            "agggta[cgt]a|t[acg]taccct",
+            "agggtaa[cgt]|[acg]ttaccct",
+    };
+
+    public static String[] dna(final int count) {
+        final String[] res = new String[count];
+        for (int i = 0; i < count; ++i) {
+            res[i] = DNA_REGEXES[i % DNA_REGEXES.length];
+        }
+        return res;
+    }
+
+    public static String[] randomDNA(final int count) {
+        final Random r = new Random(42);
+        final String[] res = new String[count];
+        for (int i = 0; i < count; ++i) {
+            res[i] = randomKMer(r) + "|" + randomKMer(r);
+        }
+        return res;
+    }
+
+    // 8 nucleotides, one of them replaced by a class of 3.
+    private static String randomKMer(final Random r) {
+        final StringBuilder sb = new StringBuilder();
+        final int classPos = r.nextInt(8);
+        for (int i = 0; i < 8; ++i) {
+            if (i == classPos) {
+                final int skip = r.nextInt(4);
+                sb.append('[');
+                for (int j = 0; j < 4; ++j) {
+                    if (j != skip) sb.append("acgt".charAt(j));
+                }
+                sb.append(']');
+            } else {
+                sb.append("acgt".charAt(r.nextInt(4)));
+            }
+        }
+        return sb.toString();
+    }
+}
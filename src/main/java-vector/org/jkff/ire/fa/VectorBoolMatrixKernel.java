@@ -0,0 +1,84 @@
+package org.jkff.ire.fa;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BoolMatrixKernel} on top of the incubating Vector API.
+ * Only compiled with the "vector" profile, and loaded reflectively.
+ *
+ * Rows are processed two words at a time: the Vector API only compiles to
+ * SIMD instructions for a constant species, and with 100-300 states a row
+ * is just 2-5 words long, so wider species wouldn't fit. Dense rows of 'a'
+ * are multiplied blockwise: each pair of result words is kept in a register
+ * while all the rows of 'b' selected by the row of 'a' are ORed into it.
+ * Sparse rows are handled like in the scalar kernel, ORing each selected
+ * row of 'b' into the result row in memory, vectorized for long rows only.
+ *
+ * Created on: 18.10.2026 16:58:55
+ */
+class VectorBoolMatrixKernel extends BoolMatrixKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_128;
+
+    // Rows of 'a' with at least this many bits set are considered dense.
+    private static final int DENSE_ROW_BITS = 8;
+    // Shorter rows of 'b' are ORed in word by word.
+    private static final int MIN_VECTOR_ROW_WORDS = 8;
+
+    void multiply(final long[] a, final long[] b, final long[] res, final int numStates, final int blockSize) {
+        if (blockSize < SPECIES.length()) {
+            SCALAR.multiply(a, b, res, numStates, blockSize);
+            return;
+        }
+        final int vectorWords = SPECIES.loopBound(blockSize);
+        final int sparseVectorWords = (blockSize >= MIN_VECTOR_ROW_WORDS) ? vectorWords : 0;
+        final int[] bits = new int[numStates];
+        for (int state = 0; state < numStates; ++state) {
+            final int ourOffset = state * blockSize;
+            int numBits = 0;
+            for (int w = 0; w < blockSize; ++w) {
+                numBits += Long.bitCount(a[ourOffset + w]);
+            }
+            if (numBits >= DENSE_ROW_BITS) {
+                numBits = 0;
+                for (int w = 0; w < blockSize; ++w) {
+                    for (long word = a[ourOffset + w]; word != 0; word &= word - 1) {
+                        bits[numBits++] = 64 * w + Long.numberOfTrailingZeros(word);
+                    }
+                }
+                for (int i = 0; i < vectorWords; i += SPECIES.length()) {
+                    LongVector acc = LongVector.fromArray(SPECIES, res, ourOffset + i);
+                    for (int j = 0; j < numBits; ++j) {
+                        acc = acc.or(LongVector.fromArray(SPECIES, b, bits[j] * blockSize + i));
+                    }
+                    acc.intoArray(res, ourOffset + i);
+                }
+                for (int i = vectorWords; i < blockSize; ++i) {
+                    long acc = res[ourOffset + i];
+                    for (int j = 0; j < numBits; ++j) {
+                        acc |= b[bits[j] * blockSize + i];
+                    }
+                    res[ourOffset + i] = acc;
+                }
+            } else {
+                for (int w = 0; w < blockSize; ++w) {
+                    for (long word = a[ourOffset + w]; word != 0; word &= word - 1) {
+                        final int theirOffset = (64 * w + Long.numberOfTrailingZeros(word)) * blockSize;
+                        for (int i = 0; i < sparseVectorWords; i += SPECIES.length()) {
+                            LongVector.fromArray(SPECIES, b, theirOffset + i)
+                                    .or(LongVector.fromArray(SPECIES, res, ourOffset + i))
+                                    .intoArray(res, ourOffset + i);
+                        }
+                        for (int i = sparseVectorWords; i < blockSize; ++i) {
+                            res[ourOffset + i] |= b[theirOffset + i];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    String getName() {
+        return "vector";
+    }
+}
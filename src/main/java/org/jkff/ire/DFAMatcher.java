@@ -1,13 +1,20 @@
 package org.jkff.ire;
 
 import org.jkff.ire.fa.BiDFA;
+import org.jkff.ire.fa.LazyDFA;
 import org.jkff.ire.fa.State;
+import org.jkff.ire.fa.TransferFunction;
+import org.jkff.ire.util.CharCursor;
+import org.jkff.ire.util.CharStepper;
 import org.jkff.ire.util.Function2;
 import org.jkff.ire.util.Pair;
 import org.jkff.ire.util.Predicate;
 
 import org.jkff.ire.util.WrappedBitSet;
+import org.jetbrains.annotations.Nullable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import static org.jkff.ire.util.CollectionFactory.newArrayList;
 
@@ -15,80 +22,590 @@ import static org.jkff.ire.util.CollectionFactory.newArrayList;
  * Created on: 31.07.2010 12:19:28
  */
 public class DFAMatcher {
-    @SuppressWarnings("unchecked")
+    // How far back to look for the start of a match char by char,
+    // if the pattern doesn't tell how long its matches may be.
+    private static final int MAX_SCAN_LENGTH = 256;
+
+    /**
+     * The matches in order of their ends, found lazily: the iterator resumes
+     * the search after the previous match end only when asked for the next match.
+     */
     public static <ST extends State>
         Iterable<Match> getMatches(
             final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string)
     {
-        final ST initial = bidfa.getForward().getInitialState();
+        return new LazyMatches<>(bidfa, string);
+    }
 
-        final Function2<SP<ST>, IndexedString, SP<ST>> addString = (sp, s) -> new SP<ST>(((DFAIndexedString<ST>) s).getForward().next(sp.state), sp.pos+s.length());
+    /**
+     * Pushes the matches to the sink in the same order as getMatches(), without
+     * creating Match objects or keeping them, until the sink returns false.
+     *
+     * @return false if the sink stopped the enumeration
+     */
+    public static <ST extends State> boolean forEachMatch(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string, final MatchSink sink)
+    {
+        final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string);
+        final int[] lengths = new int[bidfa.getNumPatterns()];
+        for(WrappedBitSet term = ends.next(); term != null; term = ends.next()) {
+            findMatchLengths(bidfa, string, ends.end, term, lengths);
+            for(int bit = term.nextSetBit(0); bit >= 0; bit = term.nextSetBit(bit+1)) {
+                if(!sink.onMatch(bit, ends.end - lengths[bit], lengths[bit]))
+                    return false;
+            }
+        }
+        return true;
+    }
 
-        final Function2<SP<ST>, Character, SP<ST>> addChar = (sp, c) -> new SP<ST>(bidfa.getForward().transfer(c).next(sp.state), sp.pos+1);
+    /**
+     * A cursor yielding the matches from the position on. With unanchored automata (see
+     * {@link BiDFA#isUnanchored()}) it starts scanning right before the position, from
+     * 'state': the forward state after chars 0..position.getEnd()-2 (none if getEnd() is 0),
+     * e.g. folded from rope sums; its terminated patterns needn't be reset. Otherwise
+     * 'state' is ignored and the matches before the position are enumerated and skipped.
+     */
+    public static <ST extends State> MatchCursor matchCursor(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+            final MatchCursor.Position position, @Nullable final ST state)
+    {
+        return bidfa.isUnanchored()
+                ? new ScanningCursor<>(bidfa, string, position, state)
+                : new SkippingCursor(getMatches(bidfa, string).iterator(), position);
+    }
 
-        final List<Match> res = newArrayList();
+    /**
+     * The first match, or the first of the pattern unless it is -1: the string is
+     * only searched as far as that match, descending into chunks with splitAfterRise.
+     */
+    @Nullable
+    public static <ST extends State> Match findFirst(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string, final int pattern)
+    {
+        if(pattern >= 0 && !bidfa.isUnanchored()) {
+            for(final Match m : getMatches(bidfa, string)) {
+                if(m.whichPattern() == pattern)
+                    return m;
+            }
+            return null;
+        }
+        final MatchEnds<ST> ends = new MatchEnds<>(
+                bidfa, string, 0, bidfa.getForward().getInitialState(), pattern);
+        return firstMatch(bidfa, string, ends, pattern);
+    }
 
-        final int shift = 0;
+    /**
+     * The first match ending after the offset. With unanchored automata, 'state' is
+     * the forward state after chars 0..offset-1, e.g. folded from rope sums, and only
+     * the rest of the string is searched; otherwise the matches before are skipped.
+     */
+    @Nullable
+    public static <ST extends State> Match findFirstAfter(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+            final int offset, @Nullable final ST state)
+    {
+        if(!bidfa.isUnanchored()) {
+            for(final Match m : getMatches(bidfa, string)) {
+                if(m.startPos() + m.length() > offset)
+                    return m;
+            }
+            return null;
+        }
+        final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string, offset, resetAll(bidfa, state), -1);
+        return firstMatch(bidfa, string, ends, -1);
+    }
 
-        SP<ST> matchStartState = new SP<>(initial, 0);
-        IndexedString rem = string;
-        IndexedString seen = string.subSequence(0,0);
+    /**
+     * The last match, i.e. that of the greatest pattern among those ending last: the match
+     * ends are enumerated, but only the start of that one is looked for.
+     */
+    @Nullable
+    public static <ST extends State> Match findLast(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string)
+    {
+        final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string);
+        int pattern = -1;
+        int end = 0;
+        for(WrappedBitSet term = ends.next(); term != null; term = ends.next()) {
+            for(int bit = term.nextSetBit(0); bit >= 0; bit = term.nextSetBit(bit+1)) {
+                pattern = bit;
+                end = ends.end;
+            }
+        }
+        if(pattern < 0)
+            return null;
+        final int len = findMatchLength(bidfa, string, end, pattern);
+        return new Match(pattern, end - len, len);
+    }
 
-        while(true) {
-            final Pair<IndexedString, IndexedString> p = rem.splitAfterRise(
-                    matchStartState, addString, addChar, DFAMatcher.<ST>hasForwardMatchAfter(shift));
-            if(p == null)
+    private static <ST extends State> Match firstMatch(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+            final MatchEnds<ST> ends, final int pattern)
+    {
+        final WrappedBitSet term = ends.next();
+        if(term == null)
+            return null;
+        final int bit = (pattern < 0) ? term.nextSetBit(0) : pattern;
+        final int len = findMatchLength(bidfa, string, ends.end, bit);
+        return new Match(bit, ends.end - len, len);
+    }
+
+    /**
+     * The state with all the patterns it terminates reset.
+     */
+    public static <ST extends State> ST resetAll(final BiDFA<Character, ST> bidfa, final ST state) {
+        final WrappedBitSet tp = state.getTerminatedPatterns();
+        ST res = state;
+        for(int p = (tp == null) ? -1 : tp.nextSetBit(0); p >= 0; p = tp.nextSetBit(p+1)) {
+            res = bidfa.getForward().resetTerminatedPattern(res, p);
+        }
+        return res;
+    }
+
+    /**
+     * Where a cursor over the string should start scanning to reach the position.
+     */
+    public static int scanStart(final IndexedString string, final MatchCursor.Position position) {
+        return Math.min(string.length(), Math.max(0, position.getEnd() - 1));
+    }
+
+    /**
+     * Those of the matches that lie within start..end-1 or, if includeCrossing, overlap it.
+     */
+    public static MatchList getMatches(
+            final Iterable<Match> matches, final int start, final int end, final boolean includeCrossing)
+    {
+        final MatchList res = new MatchList();
+        for(final Match m : matches) {
+            final int matchEnd = m.startPos() + m.length();
+            if(includeCrossing
+                    ? (m.startPos() < end && matchEnd > start)
+                    : (m.startPos() >= start && matchEnd <= end))
+                res.add(m.whichPattern(), m.startPos(), m.length());
+        }
+        return res;
+    }
+
+    /**
+     * Counts the matches of each pattern by enumerating their ends, without looking for the starts.
+     */
+    public static <ST extends State> int[] countMatches(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string)
+    {
+        final int[] res = new int[bidfa.getNumPatterns()];
+        final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string);
+        for(WrappedBitSet term = ends.next(); term != null; term = ends.next()) {
+            for(int bit = term.nextSetBit(0); bit >= 0; bit = term.nextSetBit(bit+1)) {
+                ++res[bit];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * With unanchored automata (see {@link BiDFA#isUnanchored()}), a pattern has a match
+     * iff the forward transfer function of the whole string takes the initial state
+     * to one that terminates the pattern; otherwise the match ends are enumerated,
+     * without looking for the starts.
+     */
+    public static <ST extends State> WrappedBitSet matchingPatterns(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string)
+    {
+        if(bidfa.isUnanchored()) {
+            final TransferFunction<ST> f = string.getForward();
+            final ST initial = bidfa.getForward().getInitialState();
+            return terminatedPatterns(bidfa, (f == null) ? initial : f.next(initial));
+        }
+        final WrappedBitSet res = new WrappedBitSet(bidfa.getNumPatterns());
+        final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string);
+        for(WrappedBitSet term = ends.next(); term != null; term = ends.next()) {
+            res.or(term);
+        }
+        return res;
+    }
+
+    /**
+     * A copy of the patterns terminated by the state, never null.
+     */
+    public static <ST extends State> WrappedBitSet terminatedPatterns(
+            final BiDFA<Character, ST> bidfa, final ST state)
+    {
+        final WrappedBitSet res = new WrappedBitSet(bidfa.getNumPatterns());
+        final WrappedBitSet tp = state.getTerminatedPatterns();
+        if(tp != null)
+            res.or(tp);
+        return res;
+    }
+
+    /**
+     * Finds the length of the match of the pattern ending at 'end', see {@link #findMatchLengths}.
+     */
+    public static <ST extends State> int findMatchLength(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+            final int end, final int pattern)
+    {
+        final WrappedBitSet patterns = new WrappedBitSet(pattern + 1);
+        patterns.set(pattern);
+        final int[] lengths = new int[pattern + 1];
+        findMatchLengths(bidfa, string, end, patterns, lengths);
+        return lengths[pattern];
+    }
+
+    /**
+     * Finds the lengths of the matches of all the given patterns ending at 'end' into
+     * lengths[pattern], in one pass of the backward automaton from there that notes the
+     * length for each pattern as its bit appears: first char by char, over no more than
+     * the longest possible match, then with foldBackToRise, which uses the transfer
+     * functions of whole chunks and doesn't cut the string. Like splitAfterBackRise, this
+     * relies on the backward automaton never leaving a state that terminates a pattern
+     * once it has reached one.
+     */
+    @SuppressWarnings("unchecked")
+    public static <ST extends State> void findMatchLengths(
+            final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string, final int end,
+            final WrappedBitSet patterns, final int[] lengths)
+    {
+        final LazyDFA<ST> backward = bidfa.getBackwardCache();
+        final ST initial = bidfa.getBackward().getInitialState();
+        final WrappedBitSet pending = patterns.makeCopy();
+        int numPending = 0;
+        int scanLimit = 0;
+        for(int p = pending.nextSetBit(0); p >= 0; p = pending.nextSetBit(p+1)) {
+            ++numPending;
+            final int maxLength = bidfa.getMaxMatchLength(p);
+            scanLimit = Math.max(scanLimit, (maxLength == -1) ? MAX_SCAN_LENGTH : maxLength);
+        }
+        scanLimit = Math.min(end, scanLimit);
+
+        final CharCursor cursor = string.cursor(end);
+        int id = backward.intern(initial);
+        for(int len = 0; numPending > 0; ++len) {
+            if(backward.hasTerminatedPatterns(id))
+                numPending -= resolve(backward.getTerminatedPatterns(id), pending, len, lengths);
+            if(len == scanLimit)
                 break;
+            id = backward.next(id, cursor.prev());
+        }
+        if(numPending == 0)
+            return;
+
+        // 'pos' is the number of chars folded in so far.
+        final Function2<SP<ST>, IndexedString, SP<ST>> addStringBack = (sp, s) ->
+                new SP<ST>(((DFAIndexedString<ST>) s).getBackward().next(sp.state), sp.pos+s.length());
+
+        // Stepping through chars only keeps the latest value, so one holder does for all of them.
+        final SP<ST> stepped = new SP<>(null, 0);
+        final CharStepper<SP<ST>> addCharBack = (sp, c) -> {
+            final int next = backward.next(backward.idOf(sp.id, sp.state), c);
+            return stepped.set(backward.getState(next), next, sp.pos+1);
+        };
+
+        final Predicate<SP<ST>> startsPendingMatch = sp -> {
+            final WrappedBitSet tp = backward.getTerminatedPatterns(backward.idOf(sp.id, sp.state));
+            return tp != null && intersects(tp, pending);
+        };
+
+        // Find the starts of the rest from right to left, resuming after each one.
+        SP<ST> seed = new SP<>(backward.getState(id), id, scanLimit);
+        while(numPending > 0) {
+            final SP<ST> risen = string.foldBackToRise(
+                    end - seed.pos, seed, addStringBack, addCharBack, startsPendingMatch);
+            if(risen == null)
+                throw new IllegalStateException("No start for matches of patterns " + pending + " ending at " + end);
+            numPending -= resolve(risen.state.getTerminatedPatterns(), pending, risen.pos, lengths);
+            seed = risen;
+        }
+    }
+
+    // Notes the length for the pending patterns among the terminated ones; returns how many there were.
+    private static int resolve(
+            final WrappedBitSet terminated, final WrappedBitSet pending, final int len, final int[] lengths)
+    {
+        if(terminated == null)
+            return 0;
+        int res = 0;
+        for(int p = pending.nextSetBit(0); p >= 0; p = pending.nextSetBit(p+1)) {
+            if(terminated.get(p)) {
+                lengths[p] = len;
+                pending.clear(p);
+                ++res;
+            }
+        }
+        return res;
+    }
+
+    private static boolean intersects(final WrappedBitSet a, final WrappedBitSet b) {
+        for(int p = b.nextSetBit(0); p >= 0; p = b.nextSetBit(p+1)) {
+            if(a.get(p))
+                return true;
+        }
+        return false;
+    }
+
+    // Steps through the string with splitAfterRise from one match end to the next.
+    private static class MatchEnds<ST extends State> {
+        private final BiDFA<Character, ST> bidfa;
+
+        // Characters are stepped through the determinized cache of the automaton,
+        // chunks through their transfer functions. The cache is that of the thread
+        // calling next(), in case the iteration is handed over to another thread.
+        private LazyDFA<ST> forward;
+
+        private final Function2<SP<ST>, IndexedString, SP<ST>> addString;
+        private final CharStepper<SP<ST>> addChar;
+        private final Predicate<SP<ST>> hasMatch;
+
+        private SP<ST> matchStartState;
+        private IndexedString rem;
+        int end;
+
+        MatchEnds(final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string) {
+            this(bidfa, string, 0, bidfa.getForward().getInitialState(), -1);
+        }
+
+        /**
+         * @param offset where to start looking, in the state 'state'
+         * @param pattern the pattern to look for, or -1 for any; only for unanchored automata,
+         *   whose states keep terminating a pattern once they do
+         */
+        @SuppressWarnings("unchecked")
+        MatchEnds(
+                final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+                final int offset, final ST state, final int pattern)
+        {
+            this.bidfa = bidfa;
+            this.addString = (sp, s) -> new SP<ST>(((DFAIndexedString<ST>) s).getForward().next(sp.state), sp.pos+s.length());
+            // Stepping through chars only keeps the latest value, and never the seed,
+            // so one holder does for all of them.
+            final SP<ST> stepped = new SP<>(null, 0);
+            this.addChar = (sp, c) -> {
+                final int id = forward.next(forward.idOf(sp.id, sp.state), c);
+                return stepped.set(forward.getState(id), id, sp.pos+1);
+            };
+            this.hasMatch = (pattern < 0)
+                    ? sp -> forward.hasTerminatedPatterns(forward.idOf(sp.id, sp.state))
+                    : sp -> {
+                        final int id = forward.idOf(sp.id, sp.state);
+                        return forward.hasTerminatedPatterns(id) && forward.getTerminatedPatterns(id).get(pattern);
+                    };
+            this.matchStartState = new SP<>(state, 0);
+            this.rem = (offset == 0) ? string : string.subSequence(offset, string.length());
+            this.end = offset;
+        }
+
+        // The patterns whose matches end at the next match end, which becomes 'end';
+        // or null if there are no more matches.
+        @SuppressWarnings("unchecked")
+        WrappedBitSet next() {
+            if(rem == null)
+                return null;
+            forward = bidfa.getForwardCache();
+            final Pair<IndexedString, IndexedString> p = rem.splitAfterRise(
+                    matchStartState, addString, addChar, hasMatch);
+            if(p == null) {
+                rem = null;
+                return null;
+            }
 
             final DFAIndexedString<ST> matchingPrefix = (DFAIndexedString<ST>) p.first;
             rem = p.second;
-            seen = seen.append(matchingPrefix);
+            end += matchingPrefix.length();
 
             final ST stateAfterMatch = matchingPrefix.getForward().next(matchStartState.state);
             final WrappedBitSet term = stateAfterMatch.getTerminatedPatterns();
 
-            final ST backwardInitial = bidfa.getBackward().getInitialState();
-
             ST nextMatchStart = stateAfterMatch;
-
             for(int bit = term.nextSetBit(0); bit >= 0; bit = term.nextSetBit(bit+1)) {
-                final int bit2 = bit;
+                nextMatchStart = bidfa.getForward().resetTerminatedPattern(nextMatchStart, bit);
+            }
 
-                final Function2<ST, IndexedString, ST> addStringBack = (st, s) -> ((DFAIndexedString<ST>) s).getBackward().next(st);
+            matchStartState = new SP<>(nextMatchStart, matchingPrefix.length() + 1);
+            return term;
+        }
+    }
 
-                final Function2<ST, Character, ST> addCharBack = (st, c) -> bidfa.getBackward().transfer(c).next(st);
+    // Matches found as the iteration advances; printed like a list of them.
+    private static class LazyMatches<ST extends State> implements Iterable<Match> {
+        private final BiDFA<Character, ST> bidfa;
+        private final DFAIndexedString<ST> string;
 
-                final Predicate<ST> startsThisMatch = state -> {
-                    final WrappedBitSet tp = state.getTerminatedPatterns();
-                    return tp!=null && tp.get(bit2);
-                };
+        LazyMatches(final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string) {
+            this.bidfa = bidfa;
+            this.string = string;
+        }
 
-                final int len = seen.splitAfterBackRise(
-                        backwardInitial, addStringBack, addCharBack, startsThisMatch).second.length();
-                final int startPos = seen.length() - len;
-                res.add(new Match(bit, startPos, len));
+        public Iterator<Match> iterator() {
+            return new Iterator<Match>() {
+                private final MatchEnds<ST> ends = new MatchEnds<>(bidfa, string);
+                private final int[] lengths = new int[bidfa.getNumPatterns()];
+                private WrappedBitSet term;
+                // The next pattern of 'term' to report, or -1 to look for the next match end.
+                private int bit = -1;
 
-                nextMatchStart = bidfa.getForward().resetTerminatedPattern(nextMatchStart, bit);
+                public boolean hasNext() {
+                    while(bit < 0) {
+                        term = ends.next();
+                        if(term == null)
+                            return false;
+                        bit = term.nextSetBit(0);
+                        if(bit >= 0)
+                            findMatchLengths(bidfa, string, ends.end, term, lengths);
+                    }
+                    return true;
+                }
+
+                public Match next() {
+                    if(!hasNext())
+                        throw new NoSuchElementException();
+                    final Match res = new Match(bit, ends.end - lengths[bit], lengths[bit]);
+                    bit = term.nextSetBit(bit+1);
+                    return res;
+                }
+            };
+        }
+
+        public String toString() {
+            final List<Match> res = newArrayList();
+            for(final Match m : this) {
+                res.add(m);
+            }
+            return res.toString();
+        }
+    }
+
+    // Steps char by char from its position like RopeMatcher, resetting the patterns it reports.
+    private static class ScanningCursor<ST extends State> implements MatchCursor {
+        private final BiDFA<Character, ST> bidfa;
+        private final DFAIndexedString<ST> string;
+        private final CharCursor chars;
+        private final int[] lengths;
+
+        // That of the thread calling next(), like in MatchEnds.
+        private LazyDFA<ST> forward;
+        private ST state;
+        private int id;
+        private int end;
+        // The end for which 'lengths' holds the match lengths, or -1.
+        private int lengthsEnd = -1;
+        private WrappedBitSet term;
+        // The next pattern of 'term' to report at 'end', or -1 to step further.
+        private int bit = -1;
+
+        ScanningCursor(
+                final BiDFA<Character, ST> bidfa, final DFAIndexedString<ST> string,
+                final MatchCursor.Position position, final ST state)
+        {
+            this.bidfa = bidfa;
+            this.string = string;
+            this.forward = bidfa.getForwardCache();
+            this.lengths = new int[bidfa.getNumPatterns()];
+            this.end = scanStart(string, position);
+            this.chars = string.cursor(end);
+            this.state = resetAll(bidfa, state);
+            this.id = forward.intern(this.state);
+            if(end < string.length()) {
+                step();
+                if(end == position.getEnd() && bit >= 0)
+                    bit = term.nextSetBit(Math.max(0, position.getPattern()));
             }
+        }
 
-            matchStartState = new SP<>(nextMatchStart, matchingPrefix.length() + 1);
+        public boolean next(final MatchSink sink) {
+            forward = bidfa.getForwardCache();
+            while(bit < 0) {
+                if(end == string.length())
+                    return false;
+                step();
+            }
+            if(lengthsEnd != end) {
+                findMatchLengths(bidfa, string, end, term, lengths);
+                lengthsEnd = end;
+            }
+            sink.onMatch(bit, end - lengths[bit], lengths[bit]);
+            bit = term.nextSetBit(bit+1);
+            return true;
         }
 
-        return res;
+        public MatchCursor.Position getPosition() {
+            return (bit >= 0) ? new MatchCursor.Position(end, bit) : new MatchCursor.Position(end + 1, 0);
+        }
+
+        private void step() {
+            id = forward.next(forward.idOf(id, state), chars.next());
+            state = forward.getState(id);
+            ++end;
+            if(forward.hasTerminatedPatterns(id)) {
+                term = forward.getTerminatedPatterns(id);
+                bit = term.nextSetBit(0);
+                state = resetAll(bidfa, state);
+                id = forward.intern(state);
+            } else {
+                bit = -1;
+            }
+        }
     }
 
-    private static <ST extends State> Predicate<SP<ST>> hasForwardMatchAfter(final int pos) {
-        return sp -> !sp.state.getTerminatedPatterns().isEmpty() && sp.pos >= pos;
+    // Enumerates the matches from the start and skips those before the position.
+    private static class SkippingCursor implements MatchCursor {
+        private final Iterator<Match> matches;
+        private MatchCursor.Position position;
+
+        SkippingCursor(final Iterator<Match> matches, final MatchCursor.Position position) {
+            this.matches = matches;
+            this.position = position;
+        }
+
+        public boolean next(final MatchSink sink) {
+            while(matches.hasNext()) {
+                final Match m = matches.next();
+                final int end = m.startPos() + m.length();
+                if(end > position.getEnd() || (end == position.getEnd() && m.whichPattern() >= position.getPattern())) {
+                    sink.onMatch(m.whichPattern(), m.startPos(), m.length());
+                    position = new MatchCursor.Position(end, m.whichPattern() + 1);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public MatchCursor.Position getPosition() {
+            return position;
+        }
     }
 
-    // State and position.
-    private static class SP<ST extends State> {
+    // State and its id in a LazyDFA (or -1 if not known yet).
+    private static class CS<ST extends State> {
         ST state;
+        int id;
+
+        CS(final ST state) {
+            this(state, -1);
+        }
+
+        CS(final ST state, final int id) {
+            this.state = state;
+            this.id = id;
+        }
+    }
+
+    // State and position.
+    private static class SP<ST extends State> extends CS<ST> {
         int pos;
 
         SP(final ST state, final int pos) {
+            this(state, -1, pos);
+        }
+
+        SP(final ST state, final int id, final int pos) {
+            super(state, id);
+            this.pos = pos;
+        }
+
+        SP<ST> set(final ST state, final int id, final int pos) {
             this.state = state;
+            this.id = id;
             this.pos = pos;
+            return this;
         }
     }
 }
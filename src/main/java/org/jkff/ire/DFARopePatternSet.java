@@ -4,6 +4,12 @@ import org.jkff.ire.fa.BiDFA;
 import org.jkff.ire.fa.PowerIntState;
 import org.jkff.ire.rope.RopeBasedIS;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Created on: 01.09.2010 23:44:51
  */
@@ -14,11 +20,51 @@ public class DFARopePatternSet implements PatternSet {
         this.bidfa = bidfa;
     }
 
-    public IndexedString match(final String s) {
+    public BiDFA<Character, PowerIntState> getBiDFA() {
+        return bidfa;
+    }
+
+    public RopeBasedIS<PowerIntState> match(final String s) {
         return new RopeBasedIS<>(bidfa, s);
     }
 
-    public IndexedString match(final String s, final int blockSize) {
+    public RopeBasedIS<PowerIntState> match(final String s, final int blockSize) {
         return new RopeBasedIS<>(bidfa, s, blockSize);
     }
+
+    public RopeBasedIS<PowerIntState> match(final String s, final int blockSize, final ForkJoinPool pool) {
+        return new RopeBasedIS<>(bidfa, s, blockSize, pool);
+    }
+
+    public RopeBasedIS<PowerIntState> match(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return match(channel);
+        }
+    }
+
+    public RopeBasedIS<PowerIntState> match(final FileChannel channel) throws IOException {
+        return new RopeBasedIS<>(bidfa, channel);
+    }
+
+    public RopeBasedIS<PowerIntState> match(final FileChannel channel, final int blockSize, final ForkJoinPool pool)
+            throws IOException
+    {
+        return new RopeBasedIS<>(bidfa, channel, blockSize, pool);
+    }
+
+    /**
+     * Saves a string matched by this pattern set together with its index, see {@link RopeBasedIS#save}.
+     */
+    public void save(final RopeBasedIS<PowerIntState> s, final Path indexFile) throws IOException {
+        RopeBasedIS.save(s, indexFile);
+    }
+
+    /**
+     * Loads a string saved with {@link #save} without indexing it again, unless it was
+     * saved by a different pattern set: then it is indexed anew. The text stays
+     * mapped from the file, which must not be modified while the result is in use.
+     */
+    public RopeBasedIS<PowerIntState> load(final Path indexFile) throws IOException {
+        return RopeBasedIS.load(bidfa, indexFile, null);
+    }
 }
@@ -1,8 +1,11 @@
 package org.jkff.ire;
 
+import org.jkff.ire.util.CharCursor;
+import org.jkff.ire.util.CharStepper;
 import org.jkff.ire.util.Function2;
 import org.jkff.ire.util.Pair;
 import org.jkff.ire.util.Predicate;
+import org.jkff.ire.util.WrappedBitSet;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -11,12 +14,96 @@ import org.jetbrains.annotations.Nullable;
 public interface IndexedString extends CharSequence {
     Iterable<Match> getMatches();
 
+    /**
+     * Pushes the matches to the sink in the same order as getMatches(),
+     * until the sink returns false.
+     *
+     * @return false if the sink stopped the enumeration
+     */
+    boolean forEachMatch(MatchSink sink);
+
+    /**
+     * All the matches, in the same order as getMatches(), in arrays rather than as objects.
+     */
+    MatchList getMatchList();
+
+    /**
+     * A cursor over the matches ending after the offset.
+     */
+    MatchCursor matchCursor(int offset);
+
+    /**
+     * The first match in the order of getMatches(), found without looking further; null if none.
+     */
+    @Nullable
+    Match findFirst();
+
+    /**
+     * The first match of the pattern; null if none.
+     */
+    @Nullable
+    Match findFirst(int pattern);
+
+    /**
+     * The first match ending after the offset; null if none.
+     */
+    @Nullable
+    Match findFirstAfter(int offset);
+
+    /**
+     * The last match in the order of getMatches(); null if none.
+     */
+    @Nullable
+    Match findLast();
+
+    /**
+     * A cursor continuing from the position of another one, see {@link MatchCursor#getPosition()}.
+     */
+    MatchCursor matchCursor(MatchCursor.Position position);
+
+    /**
+     * The matches of this string that lie entirely within start..end-1, with their
+     * positions in this string. Unlike subSequence(start, end).getMatches(), the
+     * string needn't be cut.
+     */
+    Iterable<Match> getMatches(int start, int end);
+
+    /**
+     * Like {@link #getMatches(int, int)}, but if includeCrossing, also the matches
+     * that start before the range or end after it, but overlap it.
+     */
+    Iterable<Match> getMatches(int start, int end, boolean includeCrossing);
+
+    /**
+     * The number of matches of each pattern, indexed by pattern.
+     */
+    int[] countMatches();
+
+    /**
+     * The number of matches of each pattern in subSequence(start, end). With unanchored
+     * automata (see {@link org.jkff.ire.fa.BiDFA#isUnanchored()}) these are the matches
+     * of this string that lie entirely within the range.
+     */
+    int[] countMatches(int start, int end);
+
+    boolean containsMatch();
+
+    /**
+     * The patterns that have matches, indexed by pattern.
+     */
+    WrappedBitSet matchingPatterns();
+
+    /**
+     * The patterns that have matches within subSequence(start, end).
+     */
+    WrappedBitSet matchingPatterns(int start, int end);
+
     Pair<IndexedString,IndexedString> splitBefore(int index);
 
     @Nullable
     <ST> Pair<IndexedString,IndexedString> splitAfterRise(
             ST seed,
-            Function2<ST,IndexedString,ST> addChunk, Function2<ST,Character,ST> addChar,
+            Function2<ST,IndexedString,ST> addChunk, CharStepper<ST> addChar,
             Predicate<ST> toBool);
 
     /**
@@ -26,10 +113,43 @@ public interface IndexedString extends CharSequence {
     @Nullable
     <T> Pair<IndexedString,IndexedString> splitAfterBackRise(
             T seed,
-            Function2<T,IndexedString,T> addChunk, Function2<T,Character,T> addChar,
+            Function2<T,IndexedString,T> addChunk, CharStepper<T> addChar,
+            Predicate<T> toBool);
+
+    /**
+     * Folds chars end-1, end-2, ... into the seed until toBool holds, like
+     * splitAfterBackRise over subSequence(0, end), but without cutting the string.
+     * @param addChunk will be given a NON-REVERSED chunk
+     * @return the first value for which toBool holds (the seed, if it does), or null if none
+     */
+    @Nullable
+    <T> T foldBackToRise(
+            int end, T seed,
+            Function2<T,IndexedString,T> addChunk, CharStepper<T> addChar,
             Predicate<T> toBool);
 
     IndexedString append(IndexedString s);
 
+    IndexedString insert(int index, CharSequence text);
+
+    IndexedString delete(int start, int end);
+
+    /**
+     * This string with chars start..end-1 replaced by the text; the same as
+     * subSequence(0, start), the text and subSequence(end, length()) appended.
+     */
+    IndexedString replace(int start, int end, CharSequence text);
+
+    /**
+     * A cursor before the char with the given index, for reading the string
+     * sequentially in either direction faster than with charAt.
+     */
+    CharCursor cursor(int index);
+
+    /**
+     * Copies chars start..end-1 into dst starting at dstBegin, like {@link String#getChars}.
+     */
+    void getChars(int start, int end, char[] dst, int dstBegin);
+
     IndexedString subSequence(int start, int end);
 }
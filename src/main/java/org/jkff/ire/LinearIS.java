@@ -6,8 +6,13 @@ import org.jkff.ire.fa.TransferFunction;
 import org.jkff.ire.fa.State;
 import org.jkff.ire.util.Pair;
 import org.jkff.ire.util.Reducer;
+import org.jkff.ire.util.CharCursor;
+import org.jkff.ire.util.CharStepper;
 import org.jkff.ire.util.Function2;
 import org.jkff.ire.util.Predicate;
+import org.jkff.ire.util.WrappedBitSet;
+
+import java.util.NoSuchElementException;
 
 /**
  * Created on: 23.07.2010 9:23:42
@@ -44,6 +49,76 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
         return DFAMatcher.getMatches(bidfa, this);
     }
 
+    public boolean forEachMatch(final MatchSink sink) {
+        return DFAMatcher.forEachMatch(bidfa, this, sink);
+    }
+
+    public MatchList getMatchList() {
+        final MatchList res = new MatchList();
+        forEachMatch(res);
+        return res;
+    }
+
+    public MatchCursor matchCursor(final int offset) {
+        return matchCursor(new MatchCursor.Position(offset + 1, 0));
+    }
+
+    public MatchCursor matchCursor(final MatchCursor.Position position) {
+        return DFAMatcher.matchCursor(
+                bidfa, this, position, bidfa.isUnanchored() ? stateAt(DFAMatcher.scanStart(this, position)) : null);
+    }
+
+    public Match findFirst() {
+        return DFAMatcher.findFirst(bidfa, this, -1);
+    }
+
+    public Match findFirst(final int pattern) {
+        return DFAMatcher.findFirst(bidfa, this, pattern);
+    }
+
+    public Match findFirstAfter(final int offset) {
+        return DFAMatcher.findFirstAfter(bidfa, this, offset, bidfa.isUnanchored() ? stateAt(offset) : null);
+    }
+
+    public Match findLast() {
+        return DFAMatcher.findLast(bidfa, this);
+    }
+
+    // The forward state after chars 0..index-1.
+    private ST stateAt(final int index) {
+        final TransferFunction<ST> prefix = transferForward(bidfa, cs.subSequence(0, index));
+        final ST initial = bidfa.getForward().getInitialState();
+        return (prefix == null) ? initial : prefix.next(initial);
+    }
+
+    public Iterable<Match> getMatches(final int start, final int end) {
+        return getMatches(start, end, false);
+    }
+
+    public Iterable<Match> getMatches(final int start, final int end, final boolean includeCrossing) {
+        return DFAMatcher.getMatches(getMatches(), start, end, includeCrossing);
+    }
+
+    public int[] countMatches() {
+        return DFAMatcher.countMatches(bidfa, this);
+    }
+
+    public int[] countMatches(final int start, final int end) {
+        return subSequence(start, end).countMatches();
+    }
+
+    public boolean containsMatch() {
+        return findFirst() != null;
+    }
+
+    public WrappedBitSet matchingPatterns() {
+        return DFAMatcher.matchingPatterns(bidfa, this);
+    }
+
+    public WrappedBitSet matchingPatterns(final int start, final int end) {
+        return subSequence(start, end).matchingPatterns();
+    }
+
     public int length() {
         return cs.length();
     }
@@ -56,6 +131,22 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
         return cs.toString();
     }
 
+    public CharCursor cursor(final int index) {
+        return new CharSequenceCursor(cs, index);
+    }
+
+    public void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+        if (cs instanceof String) {
+            ((String) cs).getChars(start, end, dst, dstBegin);
+            return;
+        }
+        if (start < 0 || end > cs.length() || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + cs.length());
+        for (int i = start; i < end; ++i) {
+            dst[dstBegin + i - start] = cs.charAt(i);
+        }
+    }
+
     public LinearIS<ST> subSequence(final int start, final int end) {
         return new LinearIS<>(cs.subSequence(start, end), bidfa);
     }
@@ -69,7 +160,7 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
     public <T> Pair<IndexedString, IndexedString> splitAfterRise(
             final T seed,
             final Function2<T, IndexedString, T> addChunk,
-            final Function2<T, Character, T> addChar, final Predicate<T> toBool)
+            final CharStepper<T> addChar, final Predicate<T> toBool)
     {
         T t = seed;
         for(int i = 0; i < length(); ++i) {
@@ -84,7 +175,7 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
 
     public <T> Pair<IndexedString, IndexedString> splitAfterBackRise(
             final T seed,
-            final Function2<T, IndexedString, T> addChunk, final Function2<T, Character, T> addChar,
+            final Function2<T, IndexedString, T> addChunk, final CharStepper<T> addChar,
             final Predicate<T> toBool)
     {
         T t = seed;
@@ -96,10 +187,43 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
         return null;
     }
 
+    public <T> T foldBackToRise(
+            final int end, final T seed,
+            final Function2<T, IndexedString, T> addChunk, final CharStepper<T> addChar,
+            final Predicate<T> toBool)
+    {
+        if(end < 0 || end > length())
+            throw new IndexOutOfBoundsException("End " + end + " of " + length());
+        T t = seed;
+        for(int i = end-1; ; --i) {
+            if(toBool.isTrueFor(t))
+                return t;
+            if(i < 0)
+                return null;
+            t = addChar.applyTo(t, this.charAt(i));
+        }
+    }
+
     public IndexedString append(final IndexedString other) {
         return new LinearIS<>(cs.toString() + other.toString(), bidfa);
     }
 
+    public IndexedString insert(final int index, final CharSequence text) {
+        return replace(index, index, text);
+    }
+
+    public IndexedString delete(final int start, final int end) {
+        return replace(start, end, "");
+    }
+
+    public IndexedString replace(final int start, final int end, final CharSequence text) {
+        if (start < 0 || end > cs.length() || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + cs.length());
+        final StringBuilder sb = new StringBuilder(cs.length() - (end - start) + text.length());
+        sb.append(cs, 0, start).append(text).append(cs, end, cs.length());
+        return new LinearIS<>(sb.toString(), bidfa);
+    }
+
     private static <ST extends State> TransferFunction<ST> transferForward(
             final BiDFA<Character, ST> bidfa, final CharSequence cs)
     {
@@ -126,4 +250,44 @@ public class LinearIS<ST extends State> implements DFAIndexedString<ST> {
     private static <T> TransferFunction<T> identity() {
         return x -> x;
     }
+
+    private static class CharSequenceCursor implements CharCursor {
+        private final CharSequence cs;
+        private int pos;
+
+        private CharSequenceCursor(final CharSequence cs, final int pos) {
+            this.cs = cs;
+            seek(pos);
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public boolean hasNext() {
+            return pos < cs.length();
+        }
+
+        public char next() {
+            if (pos == cs.length())
+                throw new NoSuchElementException();
+            return cs.charAt(pos++);
+        }
+
+        public boolean hasPrev() {
+            return pos > 0;
+        }
+
+        public char prev() {
+            if (pos == 0)
+                throw new NoSuchElementException();
+            return cs.charAt(--pos);
+        }
+
+        public void seek(final int position) {
+            if (position < 0 || position > cs.length())
+                throw new IndexOutOfBoundsException("Position " + position + " of " + cs.length());
+            this.pos = position;
+        }
+    }
 }
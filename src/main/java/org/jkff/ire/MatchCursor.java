@@ -0,0 +1,69 @@
+package org.jkff.ire;
+
+import java.io.Serializable;
+
+/**
+ * Yields the matches of a string one at a time, in the order of getMatches(),
+ * from some position on: e.g. to page through the matches of a huge text.
+ *
+ * Created on: 18.10.2026 22:14:51
+ */
+public interface MatchCursor {
+    /**
+     * Pushes the next match to the sink (ignoring what it returns) and moves past it.
+     *
+     * @return false if there are no more matches
+     */
+    boolean next(MatchSink sink);
+
+    /**
+     * Where the cursor is: {@link IndexedString#matchCursor(Position)} will continue from there,
+     * also over another instance of the same string.
+     */
+    Position getPosition();
+
+    /**
+     * The (end, pattern) of the next match, or rather a lower bound for it:
+     * the cursor yields the matches ending after 'end', and those ending at 'end'
+     * whose pattern is at least 'pattern'.
+     *
+     * That's all a cursor needs to be recreated: the automaton's state at 'end'
+     * is computed anew from the sums of the string in O(log n). The ids of states
+     * in a {@link org.jkff.ire.fa.LazyDFA} wouldn't do, as they only mean anything
+     * to the cache that issued them.
+     */
+    final class Position implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int end;
+        private final int pattern;
+
+        public Position(final int end, final int pattern) {
+            this.end = end;
+            this.pattern = pattern;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getPattern() {
+            return pattern;
+        }
+
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Position)) return false;
+            final Position other = (Position) o;
+            return end == other.end && pattern == other.pattern;
+        }
+
+        public int hashCode() {
+            return 31 * end + pattern;
+        }
+
+        public String toString() {
+            return "" + pattern + "@" + end;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.jkff.ire;
+
+/**
+ * Receives matches one at a time as primitives, so that enumerating
+ * them needn't create a {@link Match} per match or keep them all.
+ *
+ * Created on: 18.10.2026 21:40:18
+ */
+public interface MatchSink {
+    /**
+     * @return false to stop the enumeration
+     */
+    boolean onMatch(int pattern, int start, int length);
+}
@@ -1,5 +1,10 @@
 package org.jkff.ire;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Created on: 22.07.2010 23:24:31
  */
@@ -7,4 +12,24 @@ public interface PatternSet {
     IndexedString match(String s);
 
     IndexedString match(String s, int blockSize);
+
+    /**
+     * Indexes the string using the given pool to process its blocks in parallel;
+     * use e.g. {@code new ForkJoinPool(n)} to limit parallelism to n threads.
+     */
+    IndexedString match(String s, int blockSize, ForkJoinPool pool);
+
+    /**
+     * Indexes the UTF-8 contents of a file, which is mapped into memory rather
+     * than read onto the heap. The file must not be modified while the result
+     * is in use, and must decode to at most Integer.MAX_VALUE chars.
+     */
+    IndexedString match(Path path) throws IOException;
+
+    /**
+     * Like {@link #match(Path)}; the channel may be closed once this returns.
+     */
+    IndexedString match(FileChannel channel) throws IOException;
+
+    IndexedString match(FileChannel channel, int blockSize, ForkJoinPool pool) throws IOException;
 }
@@ -0,0 +1,93 @@
+package org.jkff.ire.fa;
+
+import java.util.Arrays;
+
+/**
+ * A partition of the 16-bit alphabet into classes of chars that
+ * the automata don't distinguish, with a compact char -> classId map.
+ *
+ * The map is a two-level table of 256-char pages; pages whose chars
+ * all fall into one class are shared, so for patterns that only mention
+ * a few ranges of chars the table takes a couple of kilobytes.
+ *
+ * Created on: 18.10.2026 15:10:42
+ */
+public class Alphabet {
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final Alphabet IDENTITY = new Alphabet(null, null, Character.MAX_VALUE + 1);
+
+    // null for the identity partition
+    private final char[][] pages;
+    private final char[] representatives;
+    private final int numClasses;
+
+    private Alphabet(final char[][] pages, final char[] representatives, final int numClasses) {
+        this.pages = pages;
+        this.representatives = representatives;
+        this.numClasses = numClasses;
+    }
+
+    /**
+     * Every char in a class of its own.
+     */
+    public static Alphabet identity() {
+        return IDENTITY;
+    }
+
+    /**
+     * @param char2class class ids of all Character.MAX_VALUE+1 chars, numbered densely from 0
+     */
+    public static Alphabet fromClassIds(final int[] char2class) {
+        int numClasses = 0;
+        for (final int c : char2class) {
+            numClasses = Math.max(numClasses, c + 1);
+        }
+        final char[] representatives = new char[numClasses];
+        final boolean[] seen = new boolean[numClasses];
+        final char[][] uniformPages = new char[numClasses][];
+        final char[][] pages = new char[char2class.length / PAGE_SIZE][];
+        for (int page = 0; page < pages.length; ++page) {
+            final int base = page * PAGE_SIZE;
+            boolean uniform = true;
+            for (int i = 0; i < PAGE_SIZE; ++i) {
+                final int c = char2class[base + i];
+                uniform &= (c == char2class[base]);
+                if (!seen[c]) {
+                    seen[c] = true;
+                    representatives[c] = (char) (base + i);
+                }
+            }
+            if (uniform) {
+                final int c = char2class[base];
+                if (uniformPages[c] == null) {
+                    uniformPages[c] = new char[PAGE_SIZE];
+                    Arrays.fill(uniformPages[c], (char) c);
+                }
+                pages[page] = uniformPages[c];
+            } else {
+                pages[page] = new char[PAGE_SIZE];
+                for (int i = 0; i < PAGE_SIZE; ++i) {
+                    pages[page][i] = (char) char2class[base + i];
+                }
+            }
+        }
+        return new Alphabet(pages, representatives, numClasses);
+    }
+
+    public int classOf(final char c) {
+        return (pages == null) ? c : pages[c >>> PAGE_BITS][c & (PAGE_SIZE - 1)];
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * Some char of the given class.
+     */
+    public char getRepresentative(final int classId) {
+        return (representatives == null) ? (char) classId : representatives[classId];
+    }
+}
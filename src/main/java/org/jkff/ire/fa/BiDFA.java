@@ -1,15 +1,54 @@
 package org.jkff.ire.fa;
 
+import org.jkff.ire.util.WrappedBitSet;
+
 /**
+ * A pair of automata for finding matches: the forward one finds where they end,
+ * the backward one where they start.
+ *
+ * Each thread that looks for matches keeps its own {@link LazyDFA} caches for every
+ * BiDFA it has used, of up to {@link LazyDFA#DEFAULT_MAX_STATES} states each. A cache
+ * outlives its BiDFA until the thread drops its stale thread-local entries, so on
+ * long-lived threads (a pool, say) a BiDFA should be compiled once and reused rather
+ * than compiled again for every lookup.
+ *
  * Created on: 25.07.2010 13:34:11
  */
 public class BiDFA<C, ST extends State> {
     private final DFA<C, ST> forward;
     private final DFA<C, ST> backward;
+    private final int[] maxMatchLengths;
+    private final boolean unanchored;
+
+    // Determinized on the fly as matches are looked for, and kept for the next lookups.
+    // One per thread, since a LazyDFA isn't thread-safe.
+    private final ThreadLocal<LazyDFA<ST>> forwardCache;
+    private final ThreadLocal<LazyDFA<ST>> backwardCache;
 
     public BiDFA(final DFA<C, ST> forward, final DFA<C, ST> backward) {
+        this(forward, backward, null, false);
+    }
+
+    /**
+     * @param maxMatchLengths the length of the longest match of each pattern,
+     *   or -1 for patterns with arbitrarily long matches; null if not known
+     * @param unanchored see {@link #isUnanchored()}
+     */
+    public BiDFA(
+            final DFA<C, ST> forward, final DFA<C, ST> backward, final int[] maxMatchLengths,
+            final boolean unanchored)
+    {
         this.forward = forward;
         this.backward = backward;
+        this.maxMatchLengths = maxMatchLengths;
+        this.unanchored = unanchored;
+        this.forwardCache = ThreadLocal.withInitial(() -> newCache(forward));
+        this.backwardCache = ThreadLocal.withInitial(() -> newCache(backward));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <ST extends State> LazyDFA<ST> newCache(final DFA<?, ST> dfa) {
+        return new LazyDFA<>((DFA<Character, ST>) dfa);
     }
 
     public DFA<C, ST> getForward() {
@@ -19,4 +58,57 @@ public class BiDFA<C, ST extends State> {
     public DFA<C, ST> getBackward() {
         return backward;
     }
+
+    /**
+     * The forward automaton of a BiDFA over chars, determinized on the fly: the same
+     * cache for all the calls made by the current thread, so that they don't start cold.
+     * It is bounded, but may outlive this BiDFA, see the class comment.
+     * Ids of its states may be invalidated by any call that steps through it, see
+     * {@link LazyDFA#idOf}.
+     */
+    public LazyDFA<ST> getForwardCache() {
+        return forwardCache.get();
+    }
+
+    /**
+     * Like {@link #getForwardCache()}, for the backward automaton.
+     */
+    public LazyDFA<ST> getBackwardCache() {
+        return backwardCache.get();
+    }
+
+    /**
+     * The length of the longest match of the pattern, or -1 if it is unbounded or not known.
+     */
+    public int getMaxMatchLength(final int pattern) {
+        return (maxMatchLengths == null) ? -1 : maxMatchLengths[pattern];
+    }
+
+    public int getNumPatterns() {
+        if (maxMatchLengths != null)
+            return maxMatchLengths.length;
+        final WrappedBitSet tp = forward.getInitialState().getTerminatedPatterns();
+        return (tp == null) ? 0 : tp.numBits();
+    }
+
+    /**
+     * Whether the forward automaton recognizes .*(p1|...|pn).* and a substate terminating
+     * a pattern only leads to substates terminating it as well, so that resetting a pattern
+     * drops nothing that could lead to a later match. Then the state after scanning a piece
+     * of text with resets is the reset state after its transfer function, and a match is
+     * reported wherever a match of a pattern ends, whatever text precedes it: the matches
+     * inside a piece of text don't depend on the text around it.
+     * {@link org.jkff.ire.regex.RegexCompiler} checks this; patterns like ab(cd)* don't
+     * qualify, since past "ab" the automaton may still be in the middle of a "cd".
+     */
+    public boolean isUnanchored() {
+        return unanchored;
+    }
+
+    /**
+     * A partition of chars that both automata respect.
+     */
+    public Alphabet getAlphabet() {
+        return (forward.getAlphabet() == backward.getAlphabet()) ? forward.getAlphabet() : Alphabet.identity();
+    }
 }
@@ -0,0 +1,138 @@
+package org.jkff.ire.fa;
+
+/**
+ * Multiplication of boolean matrices stored as in {@link PowerIntTable}:
+ * numStates rows of blockSize longs each, row s having bit t set iff s -> t.
+ *
+ * The scalar implementation is always available; if the vector profile
+ * was used for building and the jdk.incubator.vector module is present at
+ * runtime (--add-modules jdk.incubator.vector), a SIMD one is used instead.
+ * Set the system property "ire.vector" to "false" to force the scalar one.
+ * For large and dense tables, {@link #forMultiplying} picks a table lookup
+ * based kernel instead.
+ *
+ * Created on: 18.10.2026 16:41:08
+ */
+abstract class BoolMatrixKernel {
+    private static final String VECTOR_KERNEL_CLASS = "org.jkff.ire.fa.VectorBoolMatrixKernel";
+
+    static final BoolMatrixKernel SCALAR = new Scalar();
+    static final BoolMatrixKernel FOUR_RUSSIANS = new FourRussians();
+
+    private static final BoolMatrixKernel INSTANCE = load();
+
+    private static final int DENSITY_SAMPLE_ROWS = 16;
+
+    static BoolMatrixKernel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * The kernel that is expected to be fastest for multiplying 'a' by something:
+     * the Four Russians one if there are enough states and 'a' is dense enough.
+     */
+    static BoolMatrixKernel forMultiplying(final long[] a, final int numStates) {
+        if (numStates < FourRussians.MIN_STATES)
+            return INSTANCE;
+        // Counting all the bits would take about as long as multiplying
+        // a sparse table, so estimate the density from a sample of rows.
+        final int blockSize = a.length / numStates;
+        final int step = numStates / DENSITY_SAMPLE_ROWS;
+        long sampledBits = 0;
+        for (int row = 0; row < DENSITY_SAMPLE_ROWS; ++row) {
+            for (int i = row * step * blockSize, end = i + blockSize; i < end; ++i) {
+                sampledBits += Long.bitCount(a[i]);
+            }
+        }
+        final long numBits = sampledBits * numStates / DENSITY_SAMPLE_ROWS;
+        return (numBits * FourRussians.CHUNK_BITS >= FourRussians.cost(numStates)) ? FOUR_RUSSIANS : INSTANCE;
+    }
+
+    /**
+     * ORs the product a*b into res; res must not be the same array as a or b.
+     */
+    abstract void multiply(long[] a, long[] b, long[] res, int numStates, int blockSize);
+
+    abstract String getName();
+
+    private static BoolMatrixKernel load() {
+        if (!Boolean.parseBoolean(System.getProperty("ire.vector", "true")))
+            return SCALAR;
+        try {
+            return (BoolMatrixKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            // Not compiled in, or the incubator module isn't there.
+            return SCALAR;
+        }
+    }
+
+    private static class Scalar extends BoolMatrixKernel {
+        void multiply(final long[] a, final long[] b, final long[] res, final int numStates, final int blockSize) {
+            for (int state = 0; state < numStates; ++state) {
+                final int ourOffset = state * blockSize;
+                for (int w = 0; w < blockSize; ++w) {
+                    for (long word = a[ourOffset + w]; word != 0; word &= word - 1) {
+                        final int theirOffset = (64 * w + Long.numberOfTrailingZeros(word)) * blockSize;
+                        for (int i = 0; i < blockSize; ++i) {
+                            res[ourOffset + i] |= b[theirOffset + i];
+                        }
+                    }
+                }
+            }
+        }
+
+        String getName() {
+            return "scalar";
+        }
+    }
+
+    // The "Method of Four Russians": rows of 'b' are taken in chunks of 8, and
+    // for each chunk the ORs of all 256 subsets of its rows are precomputed.
+    // Then each byte of a row of 'a' selects the OR of up to 8 rows of 'b' with
+    // a single lookup. This costs about numStates/8 * (256 + numStates) row ORs,
+    // versus one row OR per set bit of 'a' for the scalar kernel.
+    private static class FourRussians extends BoolMatrixKernel {
+        static final int CHUNK_BITS = 8;
+        static final int MIN_STATES = 256;
+
+        // Number of row ORs, times CHUNK_BITS. Below MIN_STATES, lookups lose
+        // even to dense multiplication since rows are too short.
+        static long cost(final int numStates) {
+            return (long) numStates * ((1 << CHUNK_BITS) + numStates);
+        }
+
+        void multiply(final long[] a, final long[] b, final long[] res, final int numStates, final int blockSize) {
+            final long[] table = new long[blockSize << CHUNK_BITS];
+            for (int chunk = 0; chunk * CHUNK_BITS < numStates; ++chunk) {
+                final int firstRow = chunk * CHUNK_BITS;
+                final int numSubsets = 1 << Math.min(CHUNK_BITS, numStates - firstRow);
+                // The subset 'm' is the subset 'm' without its lowest row, plus that row.
+                for (int m = 1; m < numSubsets; ++m) {
+                    final int to = m * blockSize;
+                    final int from = (m & (m - 1)) * blockSize;
+                    final int row = (firstRow + Integer.numberOfTrailingZeros(m)) * blockSize;
+                    for (int i = 0; i < blockSize; ++i) {
+                        table[to + i] = table[from + i] | b[row + i];
+                    }
+                }
+
+                final int word = firstRow / 64;
+                final int shift = firstRow % 64;
+                for (int state = 0; state < numStates; ++state) {
+                    final int ourOffset = state * blockSize;
+                    final int m = (int) (a[ourOffset + word] >>> shift) & ((1 << CHUNK_BITS) - 1);
+                    if (m == 0)
+                        continue;
+                    final int subsetOffset = m * blockSize;
+                    for (int i = 0; i < blockSize; ++i) {
+                        res[ourOffset + i] |= table[subsetOffset + i];
+                    }
+                }
+            }
+        }
+
+        String getName() {
+            return "four russians";
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.jkff.ire.fa;
+
+/**
+ * A transfer table over chars that can be queried without boxing them.
+ *
+ * Created on: 18.10.2026 16:04:52
+ */
+public interface CharTransferTable<S> extends TransferTable<Character, S> {
+    TransferFunction<S> forChar(char c);
+
+    default TransferFunction<S> forToken(final Character token) {
+        return forChar(token);
+    }
+}
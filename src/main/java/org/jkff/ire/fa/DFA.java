@@ -9,13 +9,25 @@ public abstract class DFA<C, S extends State> {
     private final TransferTable<C,S> transfer;
     private final S initialState;
     private final Reducer<TransferFunction<S>> transferFunctionsReducer;
+    private final Alphabet alphabet;
 
     public DFA(final TransferTable<C, S> transfer, final S initialState,
                final Reducer<TransferFunction<S>> transferFunctionsReducer)
+    {
+        this(transfer, initialState, transferFunctionsReducer, Alphabet.identity());
+    }
+
+    /**
+     * @param alphabet chars in the same class must have the same transfer function
+     */
+    public DFA(final TransferTable<C, S> transfer, final S initialState,
+               final Reducer<TransferFunction<S>> transferFunctionsReducer,
+               final Alphabet alphabet)
     {
         this.transfer = transfer;
         this.initialState = initialState;
         this.transferFunctionsReducer = transferFunctionsReducer;
+        this.alphabet = alphabet;
     }
 
     public S getInitialState() {
@@ -26,9 +38,24 @@ public abstract class DFA<C, S extends State> {
         return transfer.forToken(token);
     }
 
+    /**
+     * Same as transfer(token) for automata over Character, but doesn't box
+     * the char if the transfer table is a {@link CharTransferTable}.
+     */
+    @SuppressWarnings("unchecked")
+    public TransferFunction<S> transfer(final char c) {
+        return (transfer instanceof CharTransferTable)
+                ? ((CharTransferTable<S>) transfer).forChar(c)
+                : transfer.forToken((C) (Character) c);
+    }
+
     public Reducer<TransferFunction<S>> getTransferFunctionsReducer() {
         return transferFunctionsReducer;
     }
 
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
     public abstract S resetTerminatedPattern(S state, int pattern);
 }
@@ -21,4 +21,12 @@ public class IntState implements State {
     public WrappedBitSet getTerminatedPatterns() {
         return terminatedPatterns;
     }
+
+    public boolean equals(final Object o) {
+        return this == o || (o instanceof IntState && index == ((IntState) o).index);
+    }
+
+    public int hashCode() {
+        return index;
+    }
 }
@@ -0,0 +1,183 @@
+package org.jkff.ire.fa;
+
+import org.jkff.ire.util.WrappedBitSet;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.jkff.ire.util.CollectionFactory.newLinkedHashMap;
+
+/**
+ * On-the-fly determinization of a DFA over (possibly power-set) states,
+ * for stepping through a string one character at a time.
+ *
+ * States are interned and given int ids; (id, char class) -> id transitions
+ * are remembered in an open-addressing table, so a step that was seen
+ * before is a couple of array lookups instead of a PowerIntTable.next().
+ * Chars are mapped to classes by the DFA's {@link Alphabet}.
+ *
+ * The cache is bounded: when it would grow past the configured number
+ * of states or transitions, everything is flushed and ids start over.
+ * Thus an id is only meaningful together with the state it was obtained
+ * for: use {@link #idOf(int, State)} to revalidate an id that might have
+ * survived a flush.
+ *
+ * Not thread-safe.
+ *
+ * Created on: 18.10.2026 12:04:31
+ */
+public class LazyDFA<ST extends State> {
+    public static final int DEFAULT_MAX_STATES = 4096;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NO_KEY = -1L;
+
+    private final DFA<Character, ST> dfa;
+    private final Alphabet alphabet;
+    private final int maxStates;
+    private final int maxTransitions;
+
+    private final Map<ST, Integer> state2id = newLinkedHashMap();
+    private Object[] states = new Object[INITIAL_CAPACITY];
+    private WrappedBitSet[] terminatedPatterns = new WrappedBitSet[INITIAL_CAPACITY];
+    private boolean[] terminates = new boolean[INITIAL_CAPACITY];
+    private int numStates;
+
+    // Keys are (id << 16 | char class), NO_KEY marks a free slot.
+    private long[] keys;
+    private int[] values;
+    private int numTransitions;
+
+    private int numFlushes;
+
+    public LazyDFA(final DFA<Character, ST> dfa) {
+        this(dfa, DEFAULT_MAX_STATES);
+    }
+
+    public LazyDFA(final DFA<Character, ST> dfa, final int maxStates) {
+        this.dfa = dfa;
+        this.alphabet = dfa.getAlphabet();
+        this.maxStates = maxStates;
+        this.maxTransitions = 16 * maxStates;
+        this.keys = newKeys(2 * INITIAL_CAPACITY);
+        this.values = new int[2 * INITIAL_CAPACITY];
+    }
+
+    public int intern(final ST state) {
+        final Integer id = state2id.get(state);
+        if (id != null)
+            return id;
+        if (numStates == maxStates)
+            flush();
+        if (numStates == states.length) {
+            states = Arrays.copyOf(states, 2 * numStates);
+            terminatedPatterns = Arrays.copyOf(terminatedPatterns, 2 * numStates);
+            terminates = Arrays.copyOf(terminates, 2 * numStates);
+        }
+        final int res = numStates++;
+        final WrappedBitSet tp = state.getTerminatedPatterns();
+        states[res] = state;
+        terminatedPatterns[res] = tp;
+        terminates[res] = (tp != null) && !tp.isEmpty();
+        state2id.put(state, res);
+        return res;
+    }
+
+    /**
+     * Returns 'hint' if it is still the id of this very state object, or interns the state otherwise.
+     */
+    public int idOf(final int hint, final ST state) {
+        if (hint >= 0 && hint < numStates && states[hint] == state)
+            return hint;
+        return intern(state);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ST getState(final int id) {
+        return (ST) states[id];
+    }
+
+    public WrappedBitSet getTerminatedPatterns(final int id) {
+        return terminatedPatterns[id];
+    }
+
+    public boolean hasTerminatedPatterns(final int id) {
+        return terminates[id];
+    }
+
+    public int next(final int id, final char c) {
+        final long key = ((long) id << 16) | alphabet.classOf(c);
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != NO_KEY) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        final int flushesBefore = numFlushes;
+        final int res = intern(dfa.transfer(c).next(getState(id)));
+        if (numFlushes == flushesBefore) {
+            // 'id' is still valid, so the transition may be remembered.
+            if (numTransitions == maxTransitions) {
+                final ST target = getState(res);
+                flush();
+                return intern(target);
+            }
+            put(key, res);
+        }
+        return res;
+    }
+
+    public int getNumFlushes() {
+        return numFlushes;
+    }
+
+    private void put(final long key, final int value) {
+        if (2 * (numTransitions + 1) > keys.length) {
+            rehash(2 * keys.length);
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != NO_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        ++numTransitions;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = newKeys(capacity);
+        values = new int[capacity];
+        numTransitions = 0;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != NO_KEY)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private void flush() {
+        // Keep the arrays, they have already grown to a useful size.
+        state2id.clear();
+        Arrays.fill(states, 0, numStates, null);
+        Arrays.fill(terminatedPatterns, 0, numStates, null);
+        numStates = 0;
+        Arrays.fill(keys, NO_KEY);
+        numTransitions = 0;
+        ++numFlushes;
+    }
+
+    private static long[] newKeys(final int capacity) {
+        final long[] res = new long[capacity];
+        Arrays.fill(res, NO_KEY);
+        return res;
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
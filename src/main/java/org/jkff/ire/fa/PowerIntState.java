@@ -33,6 +33,17 @@ public class PowerIntState implements State {
         return res;
     }
 
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PowerIntState)) return false;
+        final PowerIntState other = (PowerIntState) o;
+        return basis == other.basis && subset.equals(other.subset);
+    }
+
+    public int hashCode() {
+        return subset.hashCode();
+    }
+
     public String toString() {
         return subset.toString();
     }
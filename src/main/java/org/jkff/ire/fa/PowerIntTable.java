@@ -3,6 +3,9 @@ package org.jkff.ire.fa;
 import org.jkff.ire.util.Reducer;
 import org.jkff.ire.util.WrappedBitSet;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -28,6 +31,30 @@ public class PowerIntTable implements TransferFunction<PowerIntState> {
         this.words = words;
     }
 
+    /**
+     * Reads a table written by {@link #writeTo}.
+     */
+    public static PowerIntTable readFrom(final DataInput in, final int numStates) throws IOException {
+        final long[] words = new long[numStates * ((63+numStates) / 64)];
+        for(int i = 0; i < words.length; ++i) {
+            words[i] = in.readLong();
+        }
+        return new PowerIntTable(numStates, words);
+    }
+
+    public int getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * Writes the words of the table; the number of states isn't written.
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        for(final long w : words) {
+            out.writeLong(w);
+        }
+    }
+
     public static Reducer<TransferFunction<PowerIntState>> REDUCER = new Reducer<TransferFunction<PowerIntState>>() {
         public TransferFunction<PowerIntState> compose(
                 final TransferFunction<PowerIntState> a, final TransferFunction<PowerIntState> b)
@@ -46,17 +73,8 @@ public class PowerIntTable implements TransferFunction<PowerIntState> {
 
     public PowerIntTable followedBy(final PowerIntTable other) {
         final long[] words = new long[this.words.length];
-        final long[] theirWords = other.words;
-        for(int state = 0; state < numStates; ++state) {
-            final int ourOffset = state * blockSize;
-            int bit = WrappedBitSet.nextSetBit(this.words, ourOffset, blockSize, 0);
-            while (bit >= 0) {
-                for (int i = 0; i < blockSize; ++i) {
-                    words[ourOffset + i] |= theirWords[bit*blockSize + i];
-                }
-                bit = WrappedBitSet.nextSetBit(this.words, ourOffset, blockSize, bit + 1);
-            }
-        }
+        BoolMatrixKernel.forMultiplying(this.words, numStates).multiply(
+                this.words, other.words, words, numStates, blockSize);
         return new PowerIntTable(numStates, words);
     }
 
@@ -84,20 +102,8 @@ public class PowerIntTable implements TransferFunction<PowerIntState> {
         final int blockSize = first.blockSize;
 
         for (int iF = 1; iF < fs.length(); iF++) {
-            for(int j = 0; j < numWords; ++j) {
-                newWords[j] = 0L;
-            }
-            final long[] nextWords = ((PowerIntTable) fs.get(iF)).words;
-            for (int state = 0; state < numStates; ++state) {
-                final int ourOffset = state * blockSize;
-                int bit = WrappedBitSet.nextSetBit(curWords, ourOffset, blockSize, 0);
-                while (bit >= 0) {
-                    for (int i = 0; i < blockSize; ++i) {
-                        newWords[ourOffset + i] |= nextWords[bit*blockSize + i];
-                    }
-                    bit = WrappedBitSet.nextSetBit(curWords, ourOffset, blockSize, bit + 1);
-                }
-            }
+            Arrays.fill(newWords, 0L);
+            BoolMatrixKernel.forMultiplying(curWords, numStates).multiply(curWords, ((PowerIntTable) fs.get(iF)).words, newWords, numStates, blockSize);
             final long[] tmp = curWords;
             curWords = newWords;
             newWords = tmp;
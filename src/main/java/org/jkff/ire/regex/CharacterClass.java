@@ -1,5 +1,14 @@
 package org.jkff.ire.regex;
 
+import org.jkff.ire.fa.Alphabet;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.jkff.ire.util.CollectionFactory.newArrayList;
+import static org.jkff.ire.util.CollectionFactory.newLinkedHashMap;
+
 /**
  * Created on: 01.09.2010 23:47:14
  */
@@ -28,6 +37,50 @@ public abstract class CharacterClass implements RxNode {
 
     public abstract boolean intersects(CharacterClass c);
 
+    /**
+     * The coarsest partition of chars such that each of the given classes
+     * either accepts all chars of a partition class or none of them.
+     */
+    public static Alphabet partition(final Collection<CharacterClass> classes) {
+        // Only chars mentioned in some OneOf can be told apart from the rest;
+        // those are grouped by the set of classes that accept them.
+        final Map<Character, List<Integer>> char2acceptors = newLinkedHashMap();
+        int index = 0;
+        for (final CharacterClass cc : classes) {
+            if (cc instanceof OneOf) {
+                final String s = ((OneOf) cc).s;
+                for (int i = 0; i < s.length(); ++i) {
+                    List<Integer> acceptors = char2acceptors.get(s.charAt(i));
+                    if (acceptors == null) {
+                        char2acceptors.put(s.charAt(i), acceptors = newArrayList());
+                    }
+                    if (acceptors.isEmpty() || acceptors.get(acceptors.size() - 1) != index) {
+                        acceptors.add(index);
+                    }
+                }
+            } else if (cc != ANY_CHAR && cc != null) {
+                throw new UnsupportedOperationException();
+            }
+            ++index;
+        }
+
+        final List<Integer> unmentioned = newArrayList();
+        final Map<List<Integer>, Integer> acceptors2class = newLinkedHashMap();
+        final int[] char2class = new int[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; ++c) {
+            List<Integer> acceptors = char2acceptors.get((char) c);
+            if (acceptors == null) {
+                acceptors = unmentioned;
+            }
+            Integer id = acceptors2class.get(acceptors);
+            if (id == null) {
+                acceptors2class.put(acceptors, id = acceptors2class.size());
+            }
+            char2class[c] = id;
+        }
+        return Alphabet.fromClassIds(char2class);
+    }
+
     private static class OneOf extends CharacterClass {
         private final String s;
 
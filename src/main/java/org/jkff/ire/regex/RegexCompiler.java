@@ -1,7 +1,6 @@
 package org.jkff.ire.regex;
 
 import org.jkff.ire.DFARopePatternSet;
-import org.jkff.ire.PatternSet;
 import org.jkff.ire.fa.*;
 import org.jkff.ire.util.CoarsestPartition;
 import org.jkff.ire.util.WrappedBitSet;
@@ -17,11 +16,11 @@ import static org.jkff.ire.util.CollectionFactory.*;
  * Created on: 01.09.2010 23:43:07
  */
 public class RegexCompiler {
-    public static PatternSet compile(final List<RxNode> roots) {
+    public static DFARopePatternSet compile(final List<RxNode> roots) {
         return new DFARopePatternSet(compileToBiDFA(roots));
     }
 
-    public static PatternSet compile(final String... regexes) {
+    public static DFARopePatternSet compile(final String... regexes) {
         final List<RxNode> roots = newArrayList();
         for(final String regex : regexes) {
             roots.add(RegexParser.parse(regex));
@@ -37,10 +36,73 @@ public class RegexCompiler {
             rootsAnywhere.add(new Sequence(dotStar, new Sequence(root, dotStar)));
             reversedRoots.add(new Sequence(reverse(root), dotStar));
         }
-        return new BiDFA<>(compileToDFA(rootsAnywhere), compileToDFA(reversedRoots));
+        // Both automata share the alphabet, so that a char class identifies
+        // a pair of forward and backward transfer functions.
+        final Alphabet alphabet = alphabetOf(rootsAnywhere);
+        final int[] maxMatchLengths = new int[roots.size()];
+        for(int i = 0; i < roots.size(); ++i) {
+            maxMatchLengths[i] = maxLength(roots.get(i));
+        }
+        final DFA<Character, PowerIntState> forward = compileToDFA(rootsAnywhere, alphabet);
+        return new BiDFA<>(
+                forward, compileToDFA(reversedRoots, alphabet), maxMatchLengths, keepsTerminatedPatterns(forward));
+    }
+
+    // Whether every substate terminating a pattern only leads to substates terminating it
+    // as well, see BiDFA#isUnanchored(). Not so for ab(cd)*: past "ab", a "c" leads into
+    // the middle of "cd".
+    static boolean keepsTerminatedPatterns(final DFA<Character, PowerIntState> dfa) {
+        final State[] basis = dfa.getInitialState().getBasis();
+        final Alphabet alphabet = dfa.getAlphabet();
+        for(int i = 0; i < basis.length; ++i) {
+            final WrappedBitSet terminated = basis[i].getTerminatedPatterns();
+            if(terminated.isEmpty())
+                continue;
+            final WrappedBitSet justThis = new WrappedBitSet(basis.length);
+            justThis.set(i);
+            for(int c = 0; c < alphabet.getNumClasses(); ++c) {
+                final WrappedBitSet next = dfa.transfer(alphabet.getRepresentative(c))
+                        .next(new PowerIntState(basis, justThis)).getSubset();
+                for(int j = next.nextSetBit(0); j >= 0; j = next.nextSetBit(j+1)) {
+                    final WrappedBitSet nextTerminated = basis[j].getTerminatedPatterns();
+                    for(int p = terminated.nextSetBit(0); p >= 0; p = terminated.nextSetBit(p+1)) {
+                        if(!nextTerminated.get(p))
+                            return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Length of the longest string matching the node, or -1 if unbounded.
+    static int maxLength(final RxNode rxNode) {
+        if(rxNode instanceof Alternative) {
+            final int a = maxLength(((Alternative) rxNode).a);
+            final int b = maxLength(((Alternative) rxNode).b);
+            return (a == -1 || b == -1) ? -1 : Math.max(a, b);
+        } else if(rxNode instanceof CharacterClass) {
+            return 1;
+        } else if(rxNode instanceof Empty) {
+            return 0;
+        } else if(rxNode instanceof OnceOrMore) {
+            return (maxLength(((OnceOrMore) rxNode).a) == 0) ? 0 : -1;
+        } else if(rxNode instanceof Sequence) {
+            final int a = maxLength(((Sequence) rxNode).a);
+            final int b = maxLength(((Sequence) rxNode).b);
+            return (a == -1 || b == -1 || a + b < 0) ? -1 : a + b;
+        } else if(rxNode instanceof Labeled) {
+            return maxLength(((Labeled) rxNode).a);
+        } else {
+            throw new UnsupportedOperationException("Unsupported node type " + rxNode.getClass());
+        }
     }
 
     static DFA<Character, PowerIntState> compileToDFA(final List<RxNode> rxNodes) {
+        return compileToDFA(rxNodes, alphabetOf(rxNodes));
+    }
+
+    static DFA<Character, PowerIntState> compileToDFA(final List<RxNode> rxNodes, final Alphabet alphabet) {
         if(rxNodes.isEmpty()) {
             throw new IllegalArgumentException("Pattern list can't be empty");
         }
@@ -53,10 +115,20 @@ public class RegexCompiler {
             alt = new Alternative(alt, labeled.get(i));
         }
 
-        return toDFA(reduceNFA(toNFA(alt)), rxNodes.size());
+        return toDFA(reduceNFA(toNFA(alt)), rxNodes.size(), alphabet);
     }
 
     static DFA<Character, PowerIntState> toDFA(final NFA nfa, final int numPatterns) {
+        final Set<CharacterClass> labels = newLinkedHashSet();
+        for(final NFA.Node node : dfs(nfa.begin, true)) {
+            for(final Pair<CharacterClass, NFA.Node> out : node.out) {
+                if(out.first != null) labels.add(out.first);
+            }
+        }
+        return toDFA(nfa, numPatterns, CharacterClass.partition(labels));
+    }
+
+    static DFA<Character, PowerIntState> toDFA(final NFA nfa, final int numPatterns, final Alphabet alphabet) {
         final Pair<Set<NFA.Node>, NFA.Node> opt = optimize(nfa);
 
         final Set<NFA.Node> allNodes = opt.first;
@@ -78,14 +150,15 @@ public class RegexCompiler {
             basis[i] = new IntState(i, terminatedPatterns);
         }
 
-        final TransferTable<Character,PowerIntState> transfer = new TransferTable<Character, PowerIntState>() {
-            private final TransferFunction[] transfer = new TransferFunction[Character.MAX_VALUE+1];
+        final CharTransferTable<PowerIntState> transfer = new CharTransferTable<PowerIntState>() {
+            // One transfer function per class of the alphabet, computed for its representative char.
+            private final TransferFunction[] transfer = new TransferFunction[alphabet.getNumClasses()];
 
-            public TransferFunction<PowerIntState> forToken(final Character token) {
-                final char t = token;
-                TransferFunction<PowerIntState> f = transfer[t];
+            public TransferFunction<PowerIntState> forChar(final char token) {
+                final int c = alphabet.classOf(token);
+                TransferFunction<PowerIntState> f = transfer[c];
                 if(f == null) {
-                    transfer[t] = f = computeTransferFor(t);
+                    transfer[c] = f = computeTransferFor(alphabet.getRepresentative(c));
                 }
                 return f;
             }
@@ -129,7 +202,7 @@ public class RegexCompiler {
 //        dot.append("}\n");
 //        System.out.println(dot);
 
-        return new DFA<Character, PowerIntState>(transfer, initial, PowerIntTable.REDUCER) {
+        return new DFA<Character, PowerIntState>(transfer, initial, PowerIntTable.REDUCER, alphabet) {
             @Override
             public PowerIntState resetTerminatedPattern(final PowerIntState state, final int pattern) {
                 final WrappedBitSet reset = new WrappedBitSet(basis.length);
@@ -145,6 +218,34 @@ public class RegexCompiler {
         };
     }
 
+    private static Alphabet alphabetOf(final List<RxNode> rxNodes) {
+        final Set<CharacterClass> labels = newLinkedHashSet();
+        for(final RxNode rxNode : rxNodes) {
+            collectLabels(rxNode, labels);
+        }
+        return CharacterClass.partition(labels);
+    }
+
+    private static void collectLabels(final RxNode rxNode, final Set<CharacterClass> labels) {
+        if(rxNode instanceof Alternative) {
+            collectLabels(((Alternative) rxNode).a, labels);
+            collectLabels(((Alternative) rxNode).b, labels);
+        } else if(rxNode instanceof CharacterClass) {
+            labels.add((CharacterClass) rxNode);
+        } else if(rxNode instanceof Empty) {
+            // No labels
+        } else if(rxNode instanceof OnceOrMore) {
+            collectLabels(((OnceOrMore) rxNode).a, labels);
+        } else if(rxNode instanceof Sequence) {
+            collectLabels(((Sequence) rxNode).a, labels);
+            collectLabels(((Sequence) rxNode).b, labels);
+        } else if(rxNode instanceof Labeled) {
+            collectLabels(((Labeled) rxNode).a, labels);
+        } else {
+            throw new UnsupportedOperationException("Unsupported node type " + rxNode.getClass());
+        }
+    }
+
     private static Pair<Set<NFA.Node>, NFA.Node> optimize(final NFA nfa) {
         final Pair<Set<NFA.Node>, NFA.Node> eClosure = computeEClosure(nfa);
         final Pair<Set<NFA.Node>, NFA.Node> groupedLeft = groupEquivalentStates(eClosure, true);
@@ -160,13 +261,18 @@ public class RegexCompiler {
         final Set<NFA.Node> nodes = nfa.first;
         final NFA.Node initial = nfa.second;
 
-        // Nodes terminating different patterns are different.
+        // Nodes terminating different patterns are different. When grouping by
+        // predecessors, so is the initial node: it is the only one reached by
+        // the empty prefix, and no edge tells that.
         final Map<Set<Integer>, Integer> patIds2block = newLinkedHashMap();
         final Map<NFA.Node, Integer> node2block = newLinkedHashMap();
+        int numBlocks = 0;
         for(final NFA.Node node : nodes) {
-            Integer block = patIds2block.get(node.patternIds);
-            if(block == null) {
-                patIds2block.put(node.patternIds, block = patIds2block.size());
+            Integer block;
+            if(!leftNotRight && node.equals(initial)) {
+                block = numBlocks++;
+            } else if((block = patIds2block.get(node.patternIds)) == null) {
+                patIds2block.put(node.patternIds, block = numBlocks++);
             }
             node2block.put(node, block);
         }
@@ -243,7 +349,11 @@ public class RegexCompiler {
             }
         }
         final NFA.Node newInitial = block2newNode.get(p[node2id.get(initial)]);
-        final Set<NFA.Node> newNodes = new HashSet<>(block2newNode.values());
+        // Keep the order deterministic, so that compiling the same patterns numbers
+        // the states the same way whatever else was compiled before: saved indexes
+        // depend on the numbering.
+        final Set<NFA.Node> newNodes = newLinkedHashSet();
+        newNodes.addAll(block2newNode.values());
         return Pair.of(newNodes, newInitial);
     }
 
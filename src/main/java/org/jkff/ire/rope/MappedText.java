@@ -0,0 +1,113 @@
+package org.jkff.ire.rope;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts a memory-mapped UTF-8 file into rope leaves.
+ *
+ * The file is mapped in chunks of at most MAX_CHUNK_SIZE bytes (a single
+ * mapping can't exceed 2Gb) and cut into pieces of about the same number
+ * of bytes at char boundaries; a piece never crosses a chunk. Pure ASCII
+ * pieces become views of their chunk, the rest are decoded onto the heap,
+ * malformed input being replaced with U+FFFD. A piece of multi-byte chars
+ * decodes to fewer chars than bytes, so such leaves may be shorter than
+ * the block size.
+ *
+ * Created on: 18.10.2026 20:06:12
+ */
+class MappedText {
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private long minChunkSize;
+    private ByteBuffer chunk;
+    private long chunkStart;
+
+    private MappedText(final FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+    }
+
+    static TextBlock[] cutIntoBlocks(final FileChannel channel, final int blockSize) throws IOException {
+        return new MappedText(channel).cut(blockSize);
+    }
+
+    private TextBlock[] cut(final int blockSize) throws IOException {
+        if (size == 0) {
+            return new TextBlock[] {TextBlock.EMPTY};
+        }
+        final long maxBlockSize = 2 * blockSize - 1;
+        minChunkSize = maxBlockSize + 3;
+        final long numBlocks = (size + maxBlockSize - 1) / maxBlockSize;
+        final long base = size / numBlocks;
+        final long rem = size % numBlocks;
+        final List<TextBlock> res = new ArrayList<>((int) Math.min(numBlocks, Integer.MAX_VALUE - 8));
+        long length = 0;
+        long start = 0;
+        for (long i = 1; start < size; ++i) {
+            // A piece may extend past its nominal end by up to 3 continuation bytes.
+            final long nominalEnd = Math.min(size, i * base + Math.min(i, rem));
+            if (chunk == null || nominalEnd + 3 > chunkStart + chunk.limit() && chunkStart + chunk.limit() < size) {
+                map(start);
+            }
+            long end = Math.max(nominalEnd, start);
+            while (end < size && end < chunkStart + chunk.limit() && isContinuation(byteAt(end))) {
+                ++end;
+            }
+            if (end == start) {
+                continue;
+            }
+            final TextBlock block = toBlock((int) (start - chunkStart), (int) (end - start));
+            length += block.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("File is longer than Integer.MAX_VALUE chars");
+            }
+            res.add(block);
+            start = end;
+        }
+        return res.toArray(new TextBlock[res.size()]);
+    }
+
+    private void map(final long start) throws IOException {
+        chunkStart = start;
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(Math.max(MAX_CHUNK_SIZE, minChunkSize), size - start));
+    }
+
+    private byte byteAt(final long pos) {
+        return chunk.get((int) (pos - chunkStart));
+    }
+
+    private TextBlock toBlock(final int offset, final int length) throws CharacterCodingException {
+        boolean ascii = true;
+        for (int i = offset; ascii && i < offset + length; ++i) {
+            ascii = chunk.get(i) >= 0;
+        }
+        if (ascii) {
+            return TextBlock.ofAscii(chunk, offset, length);
+        }
+        final ByteBuffer piece = chunk.duplicate();
+        piece.position(offset);
+        piece.limit(offset + length);
+        final CharBuffer chars = decoder.decode(piece);
+        return TextBlock.of(chars.toString());
+    }
+
+    private static boolean isContinuation(final byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+}
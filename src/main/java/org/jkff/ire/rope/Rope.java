@@ -1,16 +1,33 @@
 package org.jkff.ire.rope;
 
-import org.jkff.ire.fa.Sequence;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jkff.ire.util.CharCursor;
+import org.jkff.ire.util.CharStepper;
 import org.jkff.ire.util.Function2;
 import org.jkff.ire.util.Pair;
 import org.jkff.ire.util.Predicate;
 import org.jkff.ire.util.Reducer;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import static org.jkff.ire.util.CollectionFactory.newArrayList;
+
 /**
  * Created on: 21.08.2010 17:46:38
  */
 public class Rope<M> {
+    // Summarizing a block composes a monoid element per char, whereas a node
+    // composes just two or three, so leaves are split among tasks more finely.
+    private static final int LEAVES_PER_TASK = 4;
+    private static final int NODES_PER_TASK = 256;
+
     @NotNull
     private final RopeFactory<M> factory;
 
@@ -20,7 +37,18 @@ public class Rope<M> {
     private final int h;
     private final int length;
 
-    private final String block;
+    private final TextBlock block;
+
+    // Sums of a+b and b+c in 3-child nodes, computed when first needed (or
+    // known at construction), so that regrouping the children of a 3-child
+    // node in splits and appends doesn't compose them again. Racing threads
+    // may both compute a sum, which is harmless.
+    private M ab, bc;
+
+    // Whatever the owner of the rope computes from this subtree and wants
+    // to keep with it, e.g. the matches inside it (see RopeMatcher).
+    // Must be immutable, as it may be published to other threads racily.
+    private Object memo;
 
     private Rope(final Rope<M> a, final Rope<M> b, final M sum) {
         this(a, b, null, a.factory, null, sum);
@@ -30,27 +58,25 @@ public class Rope<M> {
         this(a, b, c, a.factory, null, sum);
     }
 
-    private Rope(final RopeFactory<M> factory, final String block, final M sum) {
+    private Rope(final Rope<M> a, final Rope<M> b, final Rope<M> c, final M ab, final M bc, final M sum) {
+        this(a, b, c, a.factory, null, sum);
+        this.ab = ab;
+        this.bc = bc;
+    }
+
+    private Rope(final RopeFactory<M> factory, final TextBlock block, final M sum) {
         this(null, null, null, factory, block, sum);
     }
 
-    private Rope(final RopeFactory<M> factory, final String block) {
+    private Rope(final RopeFactory<M> factory, final TextBlock block) {
         this(null, null, null, factory, block, sumString(factory, block));
     }
 
-    private static <M> M sumString(final RopeFactory<M> factory, final String block) {
-        return factory.mapReduce(new Sequence<Character>() {
-            public int length() {
-                return block.length();
-            }
-
-            public Character get(final int i) {
-                return block.charAt(i);
-            }
-        });
+    private static <M> M sumString(final RopeFactory<M> factory, final TextBlock block) {
+        return factory.mapReduce(block);
     }
 
-    private Rope(final Rope<M> a, final Rope<M> b, final Rope<M> c, final RopeFactory<M> factory, final String block, final M sum) {
+    private Rope(final Rope<M> a, final Rope<M> b, final Rope<M> c, final RopeFactory<M> factory, final TextBlock block, final M sum) {
         if (block != null) {
             assert a == null : "Block can't have a child: 'a'";
             assert b == null : "Block can't have a child: 'b'";
@@ -101,6 +127,138 @@ public class Rope<M> {
         return sum;
     }
 
+    /**
+     * Copies chars start..end-1 into dst starting at dstBegin, like {@link String#getChars}.
+     */
+    public void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length);
+        if (start == end)
+            return;
+        if (block != null) {
+            block.getChars(start, end, dst, dstBegin);
+            return;
+        }
+        int offset = 0;
+        for (int i = 0; i < getNumChildren(); ++i) {
+            final Rope<M> child = getChild(i);
+            final int from = Math.max(start, offset);
+            final int to = Math.min(end, offset + child.length);
+            if (from < to)
+                child.getChars(from - offset, to - offset, dst, dstBegin + from - start);
+            offset += child.length;
+        }
+    }
+
+    /**
+     * Folds chars start..end-1 into the seed from left to right: whole subtrees
+     * within the range with addChunk, chars of the leaves at its ends with addChar.
+     * So only O(log n + blockSize) steps are made, like in splitAfterRise.
+     */
+    public <S> S foldRange(
+            final int start, final int end, final S seed,
+            final Function2<S, Rope<M>, S> addChunk, final CharStepper<S> addChar)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length);
+        if (start == end)
+            return seed;
+        if (start == 0 && end == length)
+            return addChunk.applyTo(seed, this);
+        if (block != null) {
+            S s = seed;
+            for (int i = start; i < end; ++i) {
+                s = addChar.applyTo(s, block.charAt(i));
+            }
+            return s;
+        }
+        S s = seed;
+        int offset = 0;
+        for (int i = 0; i < getNumChildren(); ++i) {
+            final Rope<M> child = getChild(i);
+            final int from = Math.max(start, offset);
+            final int to = Math.min(end, offset + child.length);
+            if (from < to)
+                s = child.foldRange(from - offset, to - offset, s, addChunk, addChar);
+            offset += child.length;
+        }
+        return s;
+    }
+
+    /**
+     * A cursor positioned before the char with the given index. It keeps
+     * the path to its current leaf, so moving it by one char takes O(1)
+     * amortized time, unlike {@link #charAt}.
+     */
+    public CharCursor cursor(final int index) {
+        return new RopeCursor<>(this, index);
+    }
+
+    /**
+     * The chars of this rope, splitting along subtrees.
+     */
+    public Spliterator.OfInt spliterator() {
+        return new RopeSpliterator(this);
+    }
+
+    // For loading a saved rope: the sums are trusted to be those of the text.
+    static <M> Rope<M> leaf(final RopeFactory<M> factory, final TextBlock block, final M sum) {
+        return new Rope<>(factory, block, sum);
+    }
+
+    static <M> Rope<M> node(final Rope<M> a, final Rope<M> b, @Nullable final Rope<M> c, final M sum) {
+        return new Rope<>(a, b, c, sum);
+    }
+
+    RopeFactory<M> getFactory() {
+        return factory;
+    }
+
+    Object getMemo() {
+        return memo;
+    }
+
+    void setMemo(final Object memo) {
+        this.memo = memo;
+    }
+
+    TextBlock getBlock() {
+        return block;
+    }
+
+    int getHeight() {
+        return h;
+    }
+
+    int getNumChildren() {
+        return (block != null) ? 0 : (c == null) ? 2 : 3;
+    }
+
+    Rope<M> getChild(final int i) {
+        return (i == 0) ? a : (i == 1) ? b : c;
+    }
+
+    private M getSumAB() {
+        if (ab == null)
+            ab = factory.getReducer().compose(a.sum, b.sum);
+        return ab;
+    }
+
+    private M getSumBC() {
+        if (bc == null)
+            bc = factory.getReducer().compose(b.sum, c.sum);
+        return bc;
+    }
+
+    // For a 3-child node: a+b and b+c as 2-child nodes.
+    private Rope<M> joinAB() {
+        return new Rope<>(a, b, getSumAB());
+    }
+
+    private Rope<M> joinBC() {
+        return new Rope<>(b, c, getSumBC());
+    }
+
     public Rope<M> append(final Rope<M> other) {
         return append(this, other);
     }
@@ -109,37 +267,44 @@ public class Rope<M> {
         final int blockSize = left.factory.getBlockSize();
         final Reducer<M> reducer = left.factory.getReducer();
 
-        final M sum = reducer.compose(left.sum, right.sum);
+        // Appending an empty rope happens to both halves of every split at
+        // a block boundary; walking down to a leaf for it would be a waste.
+        if (right.length == 0 && left.length > 0)
+            return left;
+        if (left.length == 0 && right.length > 0)
+            return right;
+
+        // Only computed in the cases that build a node right here: the recursive
+        // cases get the sum from the appends they consist of.
+        final M sum = (Math.abs(left.h - right.h) <= 1) ? reducer.compose(left.sum, right.sum) : null;
 
         if (left.h == right.h) {
             if (left.h > 0)
                 return new Rope<>(left, right, sum);
             if (!left.isUnderflownBlock() && !right.isUnderflownBlock())
                 return new Rope<>(left, right, sum);
-            final String bigBlock = left.block + right.block;
+            final TextBlock bigBlock = left.block.concat(right.block);
             if (bigBlock.length() <= 2 * blockSize - 1)
                 return new Rope<>(left.factory, bigBlock, sum);
             return new Rope<>(
-                    new Rope<>(left.factory, bigBlock.substring(0, blockSize)),
-                    new Rope<>(left.factory, bigBlock.substring(blockSize, bigBlock.length())),
+                    new Rope<>(left.factory, bigBlock.subSequence(0, blockSize)),
+                    new Rope<>(left.factory, bigBlock.subSequence(blockSize, bigBlock.length())),
                     sum);
         } else if (left.h == right.h + 1) {
             if (left.c == null)
-                return new Rope<>(left.a, left.b, right, sum);
+                return new Rope<>(left.a, left.b, right, left.sum, null, sum);
             else
                 return new Rope<>(
-                        // Optimization opportunity: remember a+b and b+c sums in 3-child nodes
-                        new Rope<>(left.a, left.b, reducer.compose(left.a.sum, left.b.sum)),
+                        left.joinAB(),
                         new Rope<>(left.c, right, reducer.compose(left.c.sum, right.sum)),
                         sum);
         } else if (right.h == left.h + 1) {
             if (right.c == null)
-                return new Rope<>(left, right.a, right.b, sum);
+                return new Rope<>(left, right.a, right.b, null, right.sum, sum);
             else
                 return new Rope<>(
                         new Rope<>(left, right.a, reducer.compose(left.sum, right.a.sum)),
-                        // Optimization opportunity: remember a+b and b+c sums in 3-child nodes
-                        new Rope<>(right.b, right.c, reducer.compose(right.b.sum, right.c.sum)),
+                        right.joinBC(),
                         sum);
         } else if (left.h > right.h + 1) {
             if (left.c == null)
@@ -148,34 +313,170 @@ public class Rope<M> {
                 return left.a.append(left.b.append(right));
             else
                 // etc.
-                return (left.a.append(left.b)).append(left.c.append(right));
+                return left.joinAB().append(left.c.append(right));
         } else { // right.h > left.h + 1
             if (right.c == null)
                 return left.append(right.a).append(right.b);
             else
-                return (left.append(right.a)).append(right.b.append(right.c));
+                return (left.append(right.a)).append(right.joinBC());
+        }
+    }
+
+    public Rope<M> insert(final int index, final CharSequence text) {
+        return replace(index, index, text);
+    }
+
+    public Rope<M> delete(final int start, final int end) {
+        return replace(start, end, "");
+    }
+
+    /**
+     * Replaces chars start..end-1 with the text. If they lie within one leaf and the
+     * text is short, as with typing, the tree is descended once: only that leaf is
+     * rebuilt (and split in two if it overflows, or evened out with a neighbour if it
+     * underflows), and only the sums on the path to it are composed again. Otherwise
+     * the rope is split around the range and joined anew.
+     */
+    public Rope<M> replace(final int start, final int end, final CharSequence text) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length);
+        if (start == end && text.length() == 0)
+            return this;
+        final Pair<Rope<M>, Rope<M>> edited =
+                (text.length() <= 2 * maxBlockSize()) ? edit(start, end, text) : null;
+        if (edited != null) {
+            return (edited.second == null)
+                    ? edited.first
+                    : new Rope<>(edited.first, edited.second,
+                            factory.getReducer().compose(edited.first.sum, edited.second.sum));
         }
+        Rope<M> res = splitBefore(start).first;
+        if (text.length() > 0)
+            res = res.append(fromText(factory, TextBlock.of(text.toString()), null));
+        return res.append(splitBefore(end).second);
+    }
+
+    // This node with chars start..end-1 replaced, and its second half if it had to be
+    // split; or null if the range isn't within one leaf, or the leaf would become empty
+    // without a neighbour to merge with.
+    @Nullable
+    private Pair<Rope<M>, Rope<M>> edit(final int start, final int end, final CharSequence text) {
+        if (block != null) {
+            final TextBlock res = block.subSequence(0, start)
+                    .concat(TextBlock.of(text.toString()))
+                    .concat(block.subSequence(end, length));
+            return (res.length() <= 2 * maxBlockSize()) ? leaves(res) : null;
+        }
+        // The child containing the range; at a boundary between children, the left one.
+        int i = 0;
+        int offset = 0;
+        while (start > offset + getChild(i).length) {
+            offset += getChild(i).length;
+            ++i;
+        }
+        final Rope<M> child = getChild(i);
+        if (end > offset + child.length)
+            return null;
+        final Pair<Rope<M>, Rope<M>> edited = child.edit(start - offset, end - offset, text);
+        if (edited == null)
+            return null;
+        final boolean underflown = (h == 1 && edited.second == null && edited.first.isUnderflownBlock());
+        if (edited.second == null && !underflown)
+            return Pair.of(withChild(i, edited.first), null);
+
+        final List<Rope<M>> children = newArrayList();
+        for (int j = 0; j < getNumChildren(); ++j) {
+            if (j != i) {
+                children.add(getChild(j));
+            } else {
+                children.add(edited.first);
+                if (edited.second != null)
+                    children.add(edited.second);
+            }
+        }
+        if (underflown) {
+            final int first = (i > 0) ? i - 1 : i;
+            final TextBlock both = children.get(first).block.concat(children.get(first + 1).block);
+            if (both.length() > maxBlockSize()) {
+                final Pair<Rope<M>, Rope<M>> halves = leaves(both);
+                children.set(first, halves.first);
+                children.set(first + 1, halves.second);
+            } else if (children.size() == 3) {
+                children.set(first, new Rope<>(factory, both));
+                children.remove(first + 1);
+            } else if (edited.first.length == 0) {
+                return null;
+            }
+            // Otherwise the leaf stays underflown, like those left by splits.
+        }
+        if (children.size() == 4) {
+            return Pair.of(
+                    new Rope<>(children.get(0), children.get(1),
+                            factory.getReducer().compose(children.get(0).sum, children.get(1).sum)),
+                    new Rope<>(children.get(2), children.get(3),
+                            factory.getReducer().compose(children.get(2).sum, children.get(3).sum)));
+        }
+        final M sum01 = factory.getReducer().compose(children.get(0).sum, children.get(1).sum);
+        return Pair.of((children.size() == 2)
+                ? new Rope<>(children.get(0), children.get(1), sum01)
+                : new Rope<>(children.get(0), children.get(1), children.get(2), sum01, null,
+                        factory.getReducer().compose(sum01, children.get(2).sum)), null);
+    }
+
+    // A leaf with the text, or two if it doesn't fit into one.
+    private Pair<Rope<M>, Rope<M>> leaves(final TextBlock text) {
+        if (text.length() <= maxBlockSize())
+            return Pair.of(new Rope<>(factory, text), null);
+        final int half = text.length() / 2;
+        return Pair.of(
+                new Rope<>(factory, text.subSequence(0, half)),
+                new Rope<>(factory, text.subSequence(half, text.length())));
+    }
+
+    // This node with child i replaced by one of the same height, reusing
+    // the sum of the two other children of a 3-child node.
+    private Rope<M> withChild(final int i, final Rope<M> child) {
+        final Reducer<M> reducer = factory.getReducer();
+        if (c == null) {
+            return (i == 0)
+                    ? new Rope<>(child, b, reducer.compose(child.sum, b.sum))
+                    : new Rope<>(a, child, reducer.compose(a.sum, child.sum));
+        }
+        if (i == 0)
+            return new Rope<>(child, b, c, null, getSumBC(), reducer.compose(child.sum, getSumBC()));
+        if (i == 2)
+            return new Rope<>(a, b, child, getSumAB(), null, reducer.compose(getSumAB(), child.sum));
+        final M ab = reducer.compose(a.sum, child.sum);
+        return new Rope<>(a, child, c, ab, null, reducer.compose(ab, c.sum));
+    }
+
+    private int maxBlockSize() {
+        return 2 * factory.getBlockSize() - 1;
+    }
+
+    private Pair<Rope<M>, Rope<M>> splitBefore(final int index) {
+        return splitAfterRise(0, (len, r) -> len + r.length, (len, ch) -> len + 1, len -> len >= index);
     }
 
     public <S> Pair<Rope<M>, Rope<M>> splitAfterRise(
             final S seed,
-            final Function2<S, Rope<M>, S> addChunk, final Function2<S, Character, S> addChar,
+            final Function2<S, Rope<M>, S> addChunk, final CharStepper<S> addChar,
             final Predicate<S> toBool) {
         if (block != null) {
             S s = seed;
             for (int i = 0; i < block.length(); ++i) {
                 if (toBool.isTrueFor(s))
                     return Pair.of(
-                            new Rope<>(this.factory, block.substring(0, i)),
-                            new Rope<>(this.factory, block.substring(i, block.length())));
+                            new Rope<>(this.factory, block.subSequence(0, i)),
+                            new Rope<>(this.factory, block.subSequence(i, block.length())));
                 s = addChar.applyTo(s, block.charAt(i));
             }
             if (toBool.isTrueFor(s))
-                return Pair.of(this, new Rope<>(this.factory, ""));
+                return Pair.of(this, new Rope<>(this.factory, TextBlock.EMPTY));
             return null;
         } else {
             if (toBool.isTrueFor(seed))
-                return Pair.of(new Rope<>(this.factory, ""), this);
+                return Pair.of(new Rope<>(this.factory, TextBlock.EMPTY), this);
             final S afterA = addChunk.applyTo(seed, a);
             if (toBool.isTrueFor(afterA)) {
                 final Pair<Rope<M>, Rope<M>> sa = a.splitAfterRise(seed, addChunk, addChar, toBool);
@@ -184,7 +485,7 @@ public class Rope<M> {
                 }
                 return (c == null)
                         ? Pair.of(sa.first, sa.second.append(b))
-                        : Pair.of(sa.first, sa.second.append(b).append(c));
+                        : Pair.of(sa.first, sa.second.append(joinBC()));
             }
             final S afterB = addChunk.applyTo(afterA, b);
             if (toBool.isTrueFor(afterB)) {
@@ -198,7 +499,7 @@ public class Rope<M> {
             final S afterC = addChunk.applyTo(afterB, c);
             if (toBool.isTrueFor(afterC)) {
                 final Pair<Rope<M>, Rope<M>> sc = c.splitAfterRise(afterB, addChunk, addChar, toBool);
-                return Pair.of(a.append(b).append(sc.first), sc.second);
+                return Pair.of(joinAB().append(sc.first), sc.second);
             }
             return null;
         }
@@ -206,29 +507,29 @@ public class Rope<M> {
 
     public <S> Pair<Rope<M>, Rope<M>> splitAfterBackRise(
             final S seed,
-            final Function2<S, Rope<M>, S> addChunk, final Function2<S, Character, S> addChar,
+            final Function2<S, Rope<M>, S> addChunk, final CharStepper<S> addChar,
             final Predicate<S> toBool) {
         if (block != null) {
             S s = seed;
             for (int i = block.length() - 1; i >= 0; --i) {
                 if (toBool.isTrueFor(s))
                     return Pair.of(
-                            new Rope<>(this.factory, block.substring(0, i + 1)),
-                            new Rope<>(this.factory, block.substring(i + 1, block.length())));
+                            new Rope<>(this.factory, block.subSequence(0, i + 1)),
+                            new Rope<>(this.factory, block.subSequence(i + 1, block.length())));
                 s = addChar.applyTo(s, block.charAt(i));
             }
             if (toBool.isTrueFor(s))
-                return Pair.of(new Rope<>(this.factory, ""), this);
+                return Pair.of(new Rope<>(this.factory, TextBlock.EMPTY), this);
             return null;
         } else {
             if (toBool.isTrueFor(seed))
-                return Pair.of(this, new Rope<>(this.factory, ""));
+                return Pair.of(this, new Rope<>(this.factory, TextBlock.EMPTY));
             S beforeC = seed;
             if (c != null) {
                 beforeC = addChunk.applyTo(seed, c);
                 if (toBool.isTrueFor(beforeC)) {
                     final Pair<Rope<M>, Rope<M>> sc = c.splitAfterBackRise(seed, addChunk, addChar, toBool);
-                    return Pair.of(a.append(b).append(sc.first), sc.second);
+                    return Pair.of(joinAB().append(sc.first), sc.second);
                 }
             }
             final S beforeB = addChunk.applyTo(beforeC, b);
@@ -243,24 +544,85 @@ public class Rope<M> {
                 final Pair<Rope<M>, Rope<M>> sa = a.splitAfterBackRise(beforeB, addChunk, addChar, toBool);
                 return (c == null)
                         ? Pair.of(sa.first, sa.second.append(b))
-                        : Pair.of(sa.first, sa.second.append(b).append(c));
+                        : Pair.of(sa.first, sa.second.append(joinBC()));
             }
             return null;
         }
     }
 
+    /**
+     * Folds chars end-1, end-2, ... into the seed until toBool holds, like splitAfterBackRise
+     * over chars 0..end-1, but without building any ropes: whole subtrees before 'end' are
+     * folded with addChunk and only descended into if toBool holds after them.
+     *
+     * @return the first value for which toBool holds (the seed, if it does), or null if none
+     */
+    @Nullable
+    public <S> S foldBackToRise(
+            final int end, final S seed,
+            final Function2<S, Rope<M>, S> addChunk, final CharStepper<S> addChar,
+            final Predicate<S> toBool)
+    {
+        if (end < 0 || end > length)
+            throw new IndexOutOfBoundsException("End " + end + " of " + length);
+        if (toBool.isTrueFor(seed))
+            return seed;
+        final Fold<S> fold = new Fold<>(seed);
+        return foldBack(end, fold, addChunk, addChar, toBool) ? fold.value : null;
+    }
+
+    // Folds chars end-1 down to 0 into fold.value; true if toBool came to hold on the way.
+    private <S> boolean foldBack(
+            final int end, final Fold<S> fold,
+            final Function2<S, Rope<M>, S> addChunk, final CharStepper<S> addChar,
+            final Predicate<S> toBool)
+    {
+        if (end == length) {
+            final S after = addChunk.applyTo(fold.value, this);
+            if (!toBool.isTrueFor(after)) {
+                fold.value = after;
+                return false;
+            }
+        }
+        if (block != null) {
+            for (int i = end - 1; i >= 0; --i) {
+                fold.value = addChar.applyTo(fold.value, block.charAt(i));
+                if (toBool.isTrueFor(fold.value))
+                    return true;
+            }
+            return false;
+        }
+        int childEnd = length;
+        for (int i = getNumChildren() - 1; i >= 0; --i) {
+            final Rope<M> child = getChild(i);
+            final int childStart = childEnd - child.length;
+            if (childStart < end && child.foldBack(Math.min(end, childEnd) - childStart, fold, addChunk, addChar, toBool))
+                return true;
+            childEnd = childStart;
+        }
+        return false;
+    }
+
+    private static class Fold<S> {
+        S value;
+
+        Fold(final S value) {
+            this.value = value;
+        }
+    }
+
     private boolean isUnderflownBlock() {
         return h == 0 && block.length() < factory.getBlockSize();
     }
 
     public String toString() {
-        final StringBuilder res = new StringBuilder();
+        final StringBuilder res = new StringBuilder(length);
         return toString(res).toString();
     }
 
     private StringBuilder toString(final StringBuilder sb) {
         if (block != null) {
-            sb.append(block);
+            block.appendTo(sb);
         } else {
             a.toString(sb);
             b.toString(sb);
@@ -271,11 +633,129 @@ public class Rope<M> {
     }
 
     public static <M> Rope<M> fromString(final RopeFactory<M> factory, final String value) {
-        Rope<M> res = new Rope<>(factory, "");
-        for (int i = 0; i < value.length(); i += 2 * factory.getBlockSize() - 1) {
-            final String block = value.substring(i, Math.min(value.length(), i + 2 * factory.getBlockSize() - 1));
-            res = res.append(new Rope<>(factory, block));
+        return fromString(factory, value, null);
+    }
+
+    /**
+     * Like {@link #fromString(RopeFactory, String)}, but summarizes the blocks
+     * and composes the upper levels of the tree in parallel, in the given pool.
+     * The factory's map and reducer are then called from several threads at once.
+     *
+     * @param pool null to build the rope in the calling thread
+     */
+    public static <M> Rope<M> fromString(
+            final RopeFactory<M> factory, final String value, @Nullable final ForkJoinPool pool)
+    {
+        return fromText(factory, TextBlock.of(value), pool);
+    }
+
+    // The leaves are views of the text, sharing its backing array.
+    static <M> Rope<M> fromText(
+            final RopeFactory<M> factory, final TextBlock text, @Nullable final ForkJoinPool pool)
+    {
+        // Cut the text into blocks of nearly equal size, each between blockSize
+        // and 2*blockSize-1 (unless there's just one), summarize them and assemble
+        // a balanced tree bottom-up, so that every sum is composed exactly once.
+        final int maxBlockSize = 2 * factory.getBlockSize() - 1;
+        final int numBlocks = Math.max(1, (text.length() + maxBlockSize - 1) / maxBlockSize);
+        final TextBlock[] blocks = new TextBlock[numBlocks];
+        for (int i = 0; i < numBlocks; ++i) {
+            final int start = (int) ((long) i * text.length() / numBlocks);
+            final int end = (int) ((long) (i + 1) * text.length() / numBlocks);
+            blocks[i] = text.subSequence(start, end);
+        }
+        return fromBlocks(factory, blocks, pool);
+    }
+
+    /**
+     * Builds a rope over the UTF-8 contents of a file, mapping it into memory.
+     * Leaves of ASCII text stay views of the mapped file, so mostly the tree and
+     * its sums are kept on the heap; leaves with other chars are decoded.
+     * The file must not be modified while the rope is in use.
+     *
+     * @param pool null to build the rope in the calling thread
+     * @throws IllegalArgumentException if the text is longer than Integer.MAX_VALUE chars
+     */
+    public static <M> Rope<M> fromFile(
+            final RopeFactory<M> factory, final FileChannel channel, @Nullable final ForkJoinPool pool)
+            throws IOException
+    {
+        return fromBlocks(factory, MappedText.cutIntoBlocks(channel, factory.getBlockSize()), pool);
+    }
+
+    static <M> Rope<M> fromBlocks(
+            final RopeFactory<M> factory, final TextBlock[] blocks, @Nullable final ForkJoinPool pool)
+    {
+        final Rope<M>[] leaves = newArray(blocks.length);
+        forEachIndex(pool, blocks.length, LEAVES_PER_TASK, i -> leaves[i] = new Rope<>(factory, blocks[i]));
+        return assemble(pool, leaves);
+    }
+
+    // Builds a 2-3 tree over ropes of equal height, level by level.
+    private static <M> Rope<M> assemble(@Nullable final ForkJoinPool pool, Rope<M>[] level) {
+        final Reducer<M> reducer = level[0].factory.getReducer();
+        while (level.length > 1) {
+            final Rope<M>[] children = level;
+            // With an odd number of nodes, the first parent is a 3-child one.
+            final int skew = children.length % 2;
+            final Rope<M>[] parents = newArray(children.length / 2);
+            forEachIndex(pool, parents.length, NODES_PER_TASK, j -> {
+                if (j == 0 && skew == 1) {
+                    final M ab = reducer.compose(children[0].sum, children[1].sum);
+                    parents[0] = new Rope<>(
+                            children[0], children[1], children[2], ab, null, reducer.compose(ab, children[2].sum));
+                } else {
+                    final Rope<M> a = children[2 * j + skew];
+                    final Rope<M> b = children[2 * j + skew + 1];
+                    parents[j] = new Rope<>(a, b, reducer.compose(a.sum, b.sum));
+                }
+            });
+            level = parents;
+        }
+        return level[0];
+    }
+
+    @SuppressWarnings("unchecked")
+    static <M> Rope<M>[] newArray(final int length) {
+        return (Rope<M>[]) new Rope<?>[length];
+    }
+
+    private static void forEachIndex(
+            @Nullable final ForkJoinPool pool, final int n, final int grain, final IntConsumer body)
+    {
+        if (pool == null || n <= grain) {
+            for (int i = 0; i < n; ++i) {
+                body.accept(i);
+            }
+        } else {
+            pool.invoke(new ForEachIndex(0, n, grain, body));
+        }
+    }
+
+    private static class ForEachIndex extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final IntConsumer body;
+
+        private ForEachIndex(final int start, final int end, final int grain, final IntConsumer body) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (end - start <= grain) {
+                for (int i = start; i < end; ++i) {
+                    body.accept(i);
+                }
+            } else {
+                final int mid = (start + end) >>> 1;
+                invokeAll(new ForEachIndex(start, mid, grain, body), new ForEachIndex(mid, end, grain, body));
+            }
         }
-        return res;
     }
 }
@@ -3,11 +3,33 @@ package org.jkff.ire.rope;
 import org.jkff.ire.DFAIndexedString;
 import org.jkff.ire.*;
 import org.jkff.ire.IndexedString;
+import org.jkff.ire.fa.Alphabet;
 import org.jkff.ire.fa.BiDFA;
+import org.jkff.ire.fa.DFA;
+import org.jkff.ire.fa.PowerIntState;
+import org.jkff.ire.fa.PowerIntTable;
 import org.jkff.ire.fa.Sequence;
 import org.jkff.ire.fa.State;
 import org.jkff.ire.fa.TransferFunction;
 import org.jkff.ire.util.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created on: 21.08.2010 21:10:19
@@ -24,21 +46,118 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
     }
 
     public RopeBasedIS(final BiDFA<Character,ST> bidfa, final String value, final int blockSize) {
-        this(bidfa, Rope.fromString(
-                new RopeFactory<>(
-                        blockSize,
-                        new TFProduct<>(
-                                bidfa.getForward().getTransferFunctionsReducer(),
-                                bidfa.getBackward().getTransferFunctionsReducer()),
-                        new TFMap<>(bidfa)),
-                value));
+        this(bidfa, value, blockSize, null);
     }
 
-    private RopeBasedIS(final BiDFA<Character,ST> bidfa, final Rope<TransferFunctions<ST>> rope) {
+    /**
+     * @param pool if not null, blocks are summarized and the tree is assembled in parallel in this pool
+     */
+    public RopeBasedIS(
+            final BiDFA<Character,ST> bidfa, final String value, final int blockSize,
+            @Nullable final ForkJoinPool pool)
+    {
+        this(bidfa, Rope.fromString(newRopeFactory(bidfa, blockSize), value, pool));
+    }
+
+    public RopeBasedIS(final BiDFA<Character,ST> bidfa, final FileChannel channel) throws IOException {
+        this(bidfa, channel, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    /**
+     * Indexes the UTF-8 contents of a file, mapping it into memory: see
+     * {@link Rope#fromFile}. The channel may be closed afterwards, but
+     * the file must not be modified while this string is in use.
+     *
+     * @param pool if not null, blocks are summarized and the tree is assembled in parallel in this pool
+     */
+    public RopeBasedIS(
+            final BiDFA<Character,ST> bidfa, final FileChannel channel, final int blockSize,
+            @Nullable final ForkJoinPool pool) throws IOException
+    {
+        this(bidfa, Rope.fromFile(newRopeFactory(bidfa, blockSize), channel, pool));
+    }
+
+    RopeBasedIS(final BiDFA<Character,ST> bidfa, final Rope<TransferFunctions<ST>> rope) {
         this.bidfa = bidfa;
         this.rope = rope;
     }
 
+    /**
+     * Loads a string saved with {@link #save}. If the patterns have changed
+     * since then, the text is indexed anew.
+     *
+     * @param pool if not null and the text has to be indexed anew, it is done in parallel in this pool
+     */
+    public static RopeBasedIS<PowerIntState> load(
+            final BiDFA<Character,PowerIntState> bidfa, final Path file, @Nullable final ForkJoinPool pool)
+            throws IOException
+    {
+        return new RopeBasedIS<>(bidfa, RopeIndexFile.read(
+                file, fingerprint(bidfa), newRopeFactory(bidfa, DEFAULT_BLOCK_SIZE),
+                new TFCodec(bidfa.getForward().getInitialState().getBasis().length), pool));
+    }
+
+    /**
+     * Saves the text with its index, to be loaded by {@link #load} without indexing it again.
+     */
+    public static void save(final RopeBasedIS<PowerIntState> s, final Path file) throws IOException {
+        RopeIndexFile.write(
+                s.rope, fingerprint(s.bidfa),
+                new TFCodec(s.bidfa.getForward().getInitialState().getBasis().length), file);
+    }
+
+    // A hash of everything that the sums depend on: the char classes,
+    // transfer tables, initial states and terminated patterns of both automata.
+    private static long fingerprint(final BiDFA<Character,PowerIntState> bidfa) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DigestOutputStream(new OutputStream() {
+                        public void write(final int b) {
+                            // Only the digest is needed
+                        }
+                    }, digest)));
+            for (final DFA<Character,PowerIntState> dfa : Arrays.asList(bidfa.getForward(), bidfa.getBackward())) {
+                final Alphabet alphabet = dfa.getAlphabet();
+                out.writeInt(alphabet.getNumClasses());
+                for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; ++c) {
+                    out.writeInt(alphabet.classOf((char) c));
+                }
+                for (int cls = 0; cls < alphabet.getNumClasses(); ++cls) {
+                    ((PowerIntTable) dfa.transfer(alphabet.getRepresentative(cls))).writeTo(out);
+                }
+                final PowerIntState initial = dfa.getInitialState();
+                out.writeInt(initial.getBasis().length);
+                writeBits(initial.getSubset(), out);
+                for (final State state : initial.getBasis()) {
+                    writeBits(state.getTerminatedPatterns(), out);
+                }
+            }
+            out.flush();
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (final NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeBits(final WrappedBitSet bits, final DataOutput out) throws IOException {
+        for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+            out.writeInt(bit);
+        }
+        out.writeInt(-1);
+    }
+
+    private static <ST extends State> RopeFactory<TransferFunctions<ST>> newRopeFactory(
+            final BiDFA<Character,ST> bidfa, final int blockSize)
+    {
+        return new RopeFactory<>(
+                blockSize,
+                new TFProduct<>(
+                        bidfa.getForward().getTransferFunctionsReducer(),
+                        bidfa.getBackward().getTransferFunctionsReducer()),
+                new TFMap<>(bidfa));
+    }
+
     public TransferFunction<ST> getForward() {
         return rope.getSum().forward;
     }
@@ -47,13 +166,153 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
         return rope.getSum().backward;
     }
 
+    /**
+     * Found lazily by scanning the rope, keeping nothing: see {@link #getMatchList()}
+     * for reusing the matches found before an edit.
+     */
     public Iterable<Match> getMatches() {
         return DFAMatcher.getMatches(bidfa, this);
     }
 
+    /**
+     * Found by scanning the rope, keeping nothing, like {@link #getMatches()}.
+     */
+    public boolean forEachMatch(final MatchSink sink) {
+        return DFAMatcher.forEachMatch(bidfa, this, sink);
+    }
+
+    /**
+     * With unanchored automata (see {@link BiDFA#isUnanchored()}), the matches inside
+     * every node of the rope are remembered in it, so after editing the string with
+     * splits and appends only the matches in new nodes are looked for again. That
+     * takes memory in proportion to the number of matches, on top of the list itself.
+     */
+    public MatchList getMatchList() {
+        if (bidfa.isUnanchored())
+            return new RopeMatcher<>(bidfa).getMatches(rope);
+        final MatchList res = new MatchList();
+        DFAMatcher.forEachMatch(bidfa, this, res);
+        return res;
+    }
+
+    public MatchCursor matchCursor(final int offset) {
+        return matchCursor(new MatchCursor.Position(offset + 1, 0));
+    }
+
+    /**
+     * With unanchored automata, the state to start scanning from is folded from the
+     * sums of the nodes before the position, like in {@link #matchingPatterns(int, int)}.
+     */
+    public MatchCursor matchCursor(final MatchCursor.Position position) {
+        if (!bidfa.isUnanchored())
+            return DFAMatcher.matchCursor(bidfa, this, position, null);
+        return DFAMatcher.matchCursor(bidfa, this, position, stateAt(DFAMatcher.scanStart(this, position)));
+    }
+
+    public Match findFirst() {
+        return DFAMatcher.findFirst(bidfa, this, -1);
+    }
+
+    public Match findFirst(final int pattern) {
+        return DFAMatcher.findFirst(bidfa, this, pattern);
+    }
+
+    public Match findFirstAfter(final int offset) {
+        if (offset < 0 || offset > length())
+            throw new IndexOutOfBoundsException("Offset " + offset + " of " + length());
+        return DFAMatcher.findFirstAfter(bidfa, this, offset, bidfa.isUnanchored() ? stateAt(offset) : null);
+    }
+
+    /**
+     * With unanchored automata, descends into the last node in which a match ends, see
+     * {@link RopeMatcher#findLast}; otherwise enumerates the matches.
+     */
+    public Match findLast() {
+        return bidfa.isUnanchored()
+                ? new RopeMatcher<>(bidfa).findLast(rope)
+                : DFAMatcher.findLast(bidfa, this);
+    }
+
+    // The forward state after chars 0..index-1, folded from the sums of the nodes before it.
+    private ST stateAt(final int index) {
+        final DFA<Character,ST> forward = bidfa.getForward();
+        return rope.foldRange(
+                0, index, forward.getInitialState(),
+                (st, r) -> r.getSum().forward.next(st),
+                (st, c) -> forward.transfer(c).next(st));
+    }
+
+    public Iterable<Match> getMatches(final int start, final int end) {
+        return getMatches(start, end, false);
+    }
+
+    /**
+     * With unanchored automata, neither splits the rope nor remembers matches in it:
+     * the range is scanned starting from the state folded from the sums before it.
+     */
+    public Iterable<Match> getMatches(final int start, final int end, final boolean includeCrossing) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length());
+        return bidfa.isUnanchored()
+                ? new RopeMatcher<>(bidfa).getMatches(rope, start, end, includeCrossing)
+                : DFAMatcher.getMatches(getMatches(), start, end, includeCrossing);
+    }
+
+    /**
+     * With unanchored automata, counted from the matches remembered in the nodes, see
+     * {@link #getMatchList()}. So the first call on a new or edited rope looks for the
+     * matches, starts included, in every node that doesn't remember them yet, and they
+     * stay in memory as long as the nodes do; later calls take O(1). Otherwise the match
+     * ends are enumerated, without looking for the starts.
+     */
+    public int[] countMatches() {
+        return bidfa.isUnanchored()
+                ? new RopeMatcher<>(bidfa).countMatches(rope)
+                : DFAMatcher.countMatches(bidfa, this);
+    }
+
+    /**
+     * With unanchored automata, from the counts remembered in the nodes within the
+     * range, found like for {@link #countMatches()}; otherwise the range is cut off
+     * and its match ends are enumerated.
+     */
+    public int[] countMatches(final int start, final int end) {
+        if (start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length());
+        return bidfa.isUnanchored()
+                ? new RopeMatcher<>(bidfa).countMatches(rope, start, end)
+                : subSequence(start, end).countMatches();
+    }
+
+    public boolean containsMatch() {
+        return findFirst() != null;
+    }
+
+    /**
+     * With unanchored automata, found from the sum of the root alone.
+     */
+    public WrappedBitSet matchingPatterns() {
+        return DFAMatcher.matchingPatterns(bidfa, this);
+    }
+
+    /**
+     * With unanchored automata, found by folding the sums of the nodes within
+     * the range and the chars of the two leaves at its ends into the initial state.
+     */
+    public WrappedBitSet matchingPatterns(final int start, final int end) {
+        if (!bidfa.isUnanchored())
+            return subSequence(start, end).matchingPatterns();
+        final DFA<Character,ST> forward = bidfa.getForward();
+        final ST state = rope.foldRange(
+                start, end, forward.getInitialState(),
+                (st, r) -> r.getSum().forward.next(st),
+                (st, c) -> forward.transfer(c).next(st));
+        return DFAMatcher.terminatedPatterns(bidfa, state);
+    }
+
     public Pair<IndexedString, IndexedString> splitBefore(final int index) {
         final Function2<Integer, Rope<TransferFunctions<ST>>, Integer> addRopeLength = (len, rope1) -> len + rope1.length();
-        final Function2<Integer, Character, Integer> inc = (len, c) -> len + 1;
+        final CharStepper<Integer> inc = (len, c) -> len + 1;
         final Predicate<Integer> isAfterIndex = x -> x >= index;
         final Pair<Rope<TransferFunctions<ST>>, Rope<TransferFunctions<ST>>> p =
                 rope.splitAfterRise(0, addRopeLength, inc, isAfterIndex);
@@ -65,7 +324,7 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
     public <T> Pair<IndexedString, IndexedString> splitAfterRise(
             final T seed,
             final Function2<T, IndexedString, T> addChunk,
-            final Function2<T, Character, T> addChar,
+            final CharStepper<T> addChar,
             final Predicate<T> toBool)
     {
         final Pair<Rope<TransferFunctions<ST>>, Rope<TransferFunctions<ST>>> p = rope.splitAfterRise(
@@ -78,7 +337,7 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
     public <T> Pair<IndexedString, IndexedString> splitAfterBackRise(
             final T seed,
             final Function2<T, IndexedString, T> addChunk,
-            final Function2<T, Character, T> addChar, final Predicate<T> toBool)
+            final CharStepper<T> addChar, final Predicate<T> toBool)
     {
         final Pair<Rope<TransferFunctions<ST>>, Rope<TransferFunctions<ST>>> p = rope.splitAfterBackRise(
                 seed, toRopeAddChunkFun(addChunk), addChar, toBool);
@@ -87,6 +346,14 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
                 (IndexedString) new RopeBasedIS<>(bidfa, p.second));
     }
 
+    public <T> T foldBackToRise(
+            final int end, final T seed,
+            final Function2<T, IndexedString, T> addChunk,
+            final CharStepper<T> addChar, final Predicate<T> toBool)
+    {
+        return rope.foldBackToRise(end, seed, toRopeAddChunkFun(addChunk), addChar, toBool);
+    }
+
     private <T> Function2<T, Rope<TransferFunctions<ST>>, T> toRopeAddChunkFun(
             final Function2<T, IndexedString, T> addChunk) {
         return new Function2<T, Rope<TransferFunctions<ST>>, T>() {
@@ -100,6 +367,21 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
         return new RopeBasedIS<>(bidfa, rope.append(((RopeBasedIS<ST>) s).rope));
     }
 
+    public RopeBasedIS<ST> insert(final int index, final CharSequence text) {
+        return new RopeBasedIS<>(bidfa, rope.insert(index, text));
+    }
+
+    public RopeBasedIS<ST> delete(final int start, final int end) {
+        return new RopeBasedIS<>(bidfa, rope.delete(start, end));
+    }
+
+    /**
+     * Edits within a leaf only rebuild that leaf and the path to it, see {@link Rope#replace}.
+     */
+    public RopeBasedIS<ST> replace(final int start, final int end, final CharSequence text) {
+        return new RopeBasedIS<>(bidfa, rope.replace(start, end, text));
+    }
+
     public RopeBasedIS<ST> subSequence(final int start, final int end) {
         return (RopeBasedIS<ST>) splitBefore(start).second.splitBefore(end-start).first;
     }
@@ -116,9 +398,21 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
         return rope.toString();
     }
 
-    private static class TransferFunctions<ST> {
-        TransferFunction<ST> forward;
-        TransferFunction<ST> backward;
+    public CharCursor cursor(final int index) {
+        return rope.cursor(index);
+    }
+
+    public void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+        rope.getChars(start, end, dst, dstBegin);
+    }
+
+    public IntStream chars() {
+        return StreamSupport.intStream(rope.spliterator(), false);
+    }
+
+    static class TransferFunctions<ST> {
+        final TransferFunction<ST> forward;
+        final TransferFunction<ST> backward;
 
         private TransferFunctions(final TransferFunction<ST> forward, final TransferFunction<ST> backward) {
             this.forward = forward;
@@ -181,21 +475,71 @@ public class RopeBasedIS<ST extends State> implements DFAIndexedString<ST> {
         }
     }
 
-    private static class TFMap<ST extends State> implements Function<Character, TransferFunctions<ST>> {
+    @SuppressWarnings("rawtypes")
+    private static class TFCodec implements RopeIndexFile.SumCodec<TransferFunctions<PowerIntState>> {
+        private static final byte UNIT = 0;
+        private static final byte TABLE = 1;
+
+        private final int numStates;
+
+        private TFCodec(final int numStates) {
+            this.numStates = numStates;
+        }
+
+        public void write(final TransferFunctions<PowerIntState> sum, final DataOutput out) throws IOException {
+            write(sum.forward, out);
+            write(sum.backward, out);
+        }
+
+        private static void write(final TransferFunction<PowerIntState> f, final DataOutput out) throws IOException {
+            if (f == TFProduct.UNIT_TF) {
+                out.writeByte(UNIT);
+            } else {
+                out.writeByte(TABLE);
+                ((PowerIntTable) f).writeTo(out);
+            }
+        }
+
+        public TransferFunctions<PowerIntState> read(final DataInput in) throws IOException {
+            final TransferFunction<PowerIntState> forward = read1(in);
+            final TransferFunction<PowerIntState> backward = read1(in);
+            return (forward == TFProduct.UNIT_TF && backward == TFProduct.UNIT_TF)
+                    ? TFProduct.UNIT
+                    : new TransferFunctions<>(forward, backward);
+        }
+
+        private TransferFunction<PowerIntState> read1(final DataInput in) throws IOException {
+            final byte kind = in.readByte();
+            if (kind == UNIT)
+                return TFProduct.UNIT_TF;
+            if (kind != TABLE)
+                throw new IOException("Corrupt rope index: unknown transfer function kind " + kind);
+            return PowerIntTable.readFrom(in, numStates);
+        }
+    }
+
+    private static class TFMap<ST extends State> implements CharFunction<TransferFunctions<ST>> {
         private final BiDFA<Character, ST> bidfa;
+        private final Alphabet alphabet;
 
-        private final TransferFunctions[] cache = new TransferFunctions[1 + Character.MAX_VALUE];
+        // Indexed by char class: chars of one class share their pair of transfer functions.
+        // Filled lazily; when indexing in parallel, two threads may compute the same
+        // entry, which is harmless since TransferFunctions is immutable.
+        private final TransferFunctions[] cache;
 
         private TFMap(final BiDFA<Character, ST> bidfa) {
             this.bidfa = bidfa;
+            this.alphabet = bidfa.getAlphabet();
+            this.cache = new TransferFunctions[alphabet.getNumClasses()];
         }
 
-        public TransferFunctions<ST> applyTo(final Character ch) {
-            final char c = ch;
+        public TransferFunctions<ST> applyTo(final char ch) {
+            final int c = alphabet.classOf(ch);
             if(cache[c] == null) {
+                final char representative = alphabet.getRepresentative(c);
                 cache[c] = new TransferFunctions<>(
-                    bidfa.getForward().transfer(c),
-                    bidfa.getBackward().transfer(c));
+                    bidfa.getForward().transfer(representative),
+                    bidfa.getBackward().transfer(representative));
             }
             return cache[c];
         }
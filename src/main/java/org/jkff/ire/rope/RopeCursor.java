@@ -0,0 +1,111 @@
+package org.jkff.ire.rope;
+
+import org.jkff.ire.util.CharCursor;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link CharCursor} over a rope that keeps a finger to its current leaf:
+ * the path of nodes from the root and the child taken at each of them.
+ * Since all leaves are at the same depth, moving to the adjacent leaf
+ * climbs as many levels as it then descends, which is O(1) amortized.
+ *
+ * Created on: 18.10.2026 18:34:02
+ */
+class RopeCursor<M> implements CharCursor {
+    private final Rope<M> root;
+
+    // path[d] is the node at depth d, child[d] the index of its child on the way to the leaf.
+    private final Rope<M>[] path;
+    private final int[] child;
+
+    private TextBlock leaf;
+    private int leafStart;
+    private int offset;
+
+    RopeCursor(final Rope<M> root, final int position) {
+        this.root = root;
+        this.path = Rope.newArray(root.getHeight());
+        this.child = new int[root.getHeight()];
+        seek(position);
+    }
+
+    public int position() {
+        return leafStart + offset;
+    }
+
+    public boolean hasNext() {
+        return position() < root.length();
+    }
+
+    public char next() {
+        while (offset == leaf.length()) {
+            if (!moveToLeaf(+1))
+                throw new NoSuchElementException();
+        }
+        return leaf.charAt(offset++);
+    }
+
+    public boolean hasPrev() {
+        return position() > 0;
+    }
+
+    public char prev() {
+        while (offset == 0) {
+            if (!moveToLeaf(-1))
+                throw new NoSuchElementException();
+        }
+        return leaf.charAt(--offset);
+    }
+
+    public void seek(final int position) {
+        if (position < 0 || position > root.length())
+            throw new IndexOutOfBoundsException("Position " + position + " of " + root.length());
+        Rope<M> node = root;
+        int start = 0;
+        for (int d = 0; d < path.length; ++d) {
+            path[d] = node;
+            // The child containing the position, or the last one at the very end.
+            int i = 0;
+            while (i < node.getNumChildren() - 1 && position - start >= node.getChild(i).length()) {
+                start += node.getChild(i).length();
+                ++i;
+            }
+            child[d] = i;
+            node = node.getChild(i);
+        }
+        leaf = node.getBlock();
+        leafStart = start;
+        offset = position - start;
+    }
+
+    // Moves to the beginning of the next leaf or to the end of the previous one.
+    private boolean moveToLeaf(final int direction) {
+        int d = path.length - 1;
+        while (d >= 0 && !hasChild(path[d], child[d] + direction))
+            --d;
+        if (d < 0)
+            return false;
+        child[d] += direction;
+        Rope<M> node = path[d].getChild(child[d]);
+        for (++d; d < path.length; ++d) {
+            path[d] = node;
+            child[d] = (direction > 0) ? 0 : node.getNumChildren() - 1;
+            node = node.getChild(child[d]);
+        }
+        if (direction > 0) {
+            leafStart += leaf.length();
+            leaf = node.getBlock();
+            offset = 0;
+        } else {
+            leaf = node.getBlock();
+            leafStart -= leaf.length();
+            offset = leaf.length();
+        }
+        return true;
+    }
+
+    private static boolean hasChild(final Rope<?> node, final int i) {
+        return i >= 0 && i < node.getNumChildren();
+    }
+}
@@ -1,7 +1,7 @@
 package org.jkff.ire.rope;
 
 import org.jkff.ire.fa.Sequence;
-import org.jkff.ire.util.Function;
+import org.jkff.ire.util.CharFunction;
 import org.jkff.ire.util.Reducer;
 
 /**
@@ -10,9 +10,9 @@ import org.jkff.ire.util.Reducer;
 public class RopeFactory<M> {
     private final int blockSize;
     private final Reducer<M> reducer;
-    private final Function<Character,M> map;
+    private final CharFunction<M> map;
 
-    public RopeFactory(final int blockSize, final Reducer<M> reducer, final Function<Character, M> map) {
+    public RopeFactory(final int blockSize, final Reducer<M> reducer, final CharFunction<M> map) {
         this.blockSize = blockSize;
         this.reducer = reducer;
         this.map = map;
@@ -26,18 +26,18 @@ public class RopeFactory<M> {
         return reducer;
     }
 
-    public Function<Character, M> getMap() {
+    public CharFunction<M> getMap() {
         return map;
     }
 
-    public M mapReduce(final Sequence<Character> chars) {
+    public M mapReduce(final CharSequence chars) {
         return reducer.composeAll(new Sequence<M>() {
             public int length() {
                 return chars.length();
             }
 
             public M get(final int i) {
-                return getMap().applyTo(chars.get(i));
+                return map.applyTo(chars.charAt(i));
             }
         });
     }
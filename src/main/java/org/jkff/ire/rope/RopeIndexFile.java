@@ -0,0 +1,263 @@
+package org.jkff.ire.rope;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.jkff.ire.util.CollectionFactory.newArrayList;
+
+/**
+ * A binary file holding a rope with its sums, so that it can be loaded
+ * without summarizing the text again. All numbers are big-endian:
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * long   fingerprint of whatever the sums were computed with
+ * int    block size
+ * int    number of nodes, leaves included
+ * long   size of the text section in bytes
+ * text   the leaves in order: ASCII ones 1 byte per char, others 2 (UTF-16)
+ * shape  the nodes in preorder: a kind byte, and the length of each leaf
+ * sums   the sums of the nodes in preorder, as written by the SumCodec
+ * </pre>
+ * Loading maps the text section into memory and makes ASCII leaves views
+ * of it, like {@link MappedText}; sums are read onto the heap. If the
+ * fingerprint doesn't match, the sums are ignored and the leaves summarized
+ * anew, so an index stays usable after the patterns change.
+ *
+ * Created on: 18.10.2026 20:31:47
+ */
+class RopeIndexFile {
+    static final int MAGIC = 0x49524558; // "IREX"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final byte ASCII_LEAF = 0;
+    private static final byte UTF16_LEAF = 1;
+    private static final byte NODE2 = 2;
+    private static final byte NODE3 = 3;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    interface SumCodec<M> {
+        void write(M sum, DataOutput out) throws IOException;
+
+        M read(DataInput in) throws IOException;
+    }
+
+    static <M> void write(
+            final Rope<M> rope, final long fingerprint, final SumCodec<M> codec, final Path file)
+            throws IOException
+    {
+        final List<Rope<M>> nodes = newArrayList();
+        collectPreorder(rope, nodes);
+        long textSize = 0;
+        for (final Rope<M> node : nodes) {
+            if (node.getBlock() != null)
+                textSize += (long) node.length() * (isAscii(node.getBlock()) ? 1 : 2);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), BUFFER_SIZE)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(rope.getFactory().getBlockSize());
+            out.writeInt(nodes.size());
+            out.writeLong(textSize);
+
+            final char[] buf = new char[2 * rope.getFactory().getBlockSize()];
+            for (final Rope<M> node : nodes) {
+                final TextBlock block = node.getBlock();
+                if (block == null)
+                    continue;
+                final boolean ascii = isAscii(block);
+                for (int start = 0; start < block.length(); start += buf.length) {
+                    final int end = Math.min(block.length(), start + buf.length);
+                    block.getChars(start, end, buf, 0);
+                    for (int i = 0; i < end - start; ++i) {
+                        if (ascii)
+                            out.write(buf[i]);
+                        else
+                            out.writeChar(buf[i]);
+                    }
+                }
+            }
+
+            for (final Rope<M> node : nodes) {
+                if (node.getBlock() != null) {
+                    out.writeByte(isAscii(node.getBlock()) ? ASCII_LEAF : UTF16_LEAF);
+                    out.writeInt(node.length());
+                } else {
+                    out.writeByte((node.getNumChildren() == 2) ? NODE2 : NODE3);
+                }
+            }
+
+            for (final Rope<M> node : nodes) {
+                codec.write(node.getSum(), out);
+            }
+        }
+    }
+
+    /**
+     * @param factory its block size is ignored in favour of the saved one
+     * @param pool for summarizing the leaves if the fingerprint doesn't match; may be null
+     */
+    static <M> Rope<M> read(
+            final Path file, final long fingerprint, final RopeFactory<M> factory, final SumCodec<M> codec,
+            @Nullable final ForkJoinPool pool) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException("Not a rope index file: " + file);
+            final int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported rope index version " + version + " in " + file);
+            final long savedFingerprint = header.getLong();
+            final int blockSize = header.getInt();
+            final int numNodes = header.getInt();
+            final long textSize = header.getLong();
+            if (blockSize < 1 || numNodes < 1 || textSize < 0 || HEADER_SIZE + textSize > channel.size())
+                throw new IOException("Corrupt rope index file: " + file);
+            final RopeFactory<M> savedFactory = new RopeFactory<>(blockSize, factory.getReducer(), factory.getMap());
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(HEADER_SIZE + textSize)), BUFFER_SIZE));
+            final byte[] kinds = new byte[numNodes];
+            final List<TextBlock> leaves = newArrayList();
+            final LeafMapper mapper = new LeafMapper(channel, HEADER_SIZE + textSize, 2L * blockSize);
+            long textOffset = HEADER_SIZE;
+            for (int i = 0; i < numNodes; ++i) {
+                kinds[i] = in.readByte();
+                if (kinds[i] == ASCII_LEAF || kinds[i] == UTF16_LEAF) {
+                    final int length = in.readInt();
+                    final long size = (long) length * ((kinds[i] == ASCII_LEAF) ? 1 : 2);
+                    if (length < 0 || textOffset + size > HEADER_SIZE + textSize)
+                        throw new IOException("Corrupt rope index file: " + file);
+                    leaves.add(mapper.map(textOffset, length, kinds[i] == ASCII_LEAF));
+                    textOffset += size;
+                } else if (kinds[i] != NODE2 && kinds[i] != NODE3) {
+                    throw new IOException("Corrupt rope index file: " + file);
+                }
+            }
+
+            if (savedFingerprint != fingerprint) {
+                return Rope.fromBlocks(savedFactory, leaves.toArray(new TextBlock[leaves.size()]), pool);
+            }
+            return new Builder<>(savedFactory, codec, kinds, leaves, in).build();
+        }
+    }
+
+    private static <M> void collectPreorder(final Rope<M> rope, final List<Rope<M>> res) {
+        res.add(rope);
+        for (int i = 0; i < rope.getNumChildren(); ++i) {
+            collectPreorder(rope.getChild(i), res);
+        }
+    }
+
+    private static boolean isAscii(final TextBlock block) {
+        for (int i = 0; i < block.length(); ++i) {
+            if (block.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    // Maps the text section in chunks, none of which cuts a leaf.
+    private static class LeafMapper {
+        private final FileChannel channel;
+        private final long end;
+        private final long minChunkSize;
+        private ByteBuffer chunk;
+        private long chunkStart;
+
+        private LeafMapper(final FileChannel channel, final long end, final long minChunkSize) {
+            this.channel = channel;
+            this.end = end;
+            this.minChunkSize = minChunkSize;
+        }
+
+        TextBlock map(final long offset, final int length, final boolean ascii) throws IOException {
+            final long size = ascii ? length : 2L * length;
+            if (chunk == null || offset + size > chunkStart + chunk.limit()) {
+                chunkStart = offset;
+                chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                        Math.min(Math.max(MappedText.MAX_CHUNK_SIZE, Math.max(size, minChunkSize)), end - offset));
+            }
+            final int pos = (int) (offset - chunkStart);
+            if (ascii)
+                return TextBlock.ofAscii(chunk, pos, length);
+            final ByteBuffer bytes = chunk.duplicate();
+            bytes.position(pos);
+            final CharBuffer chars = bytes.asCharBuffer();
+            chars.limit(length);
+            return TextBlock.of(chars.toString());
+        }
+    }
+
+    // Reassembles the tree in preorder, reading the sums as it goes.
+    private static class Builder<M> {
+        private final RopeFactory<M> factory;
+        private final SumCodec<M> codec;
+        private final byte[] kinds;
+        private final List<TextBlock> leaves;
+        private final DataInput in;
+        private int nextNode;
+        private int nextLeaf;
+
+        private Builder(
+                final RopeFactory<M> factory, final SumCodec<M> codec,
+                final byte[] kinds, final List<TextBlock> leaves, final DataInput in)
+        {
+            this.factory = factory;
+            this.codec = codec;
+            this.kinds = kinds;
+            this.leaves = leaves;
+            this.in = in;
+        }
+
+        Rope<M> build() throws IOException {
+            final Rope<M> res = buildNode();
+            if (nextNode != kinds.length)
+                throw new IOException("Corrupt rope index: " + (kinds.length - nextNode) + " extra nodes");
+            return res;
+        }
+
+        private Rope<M> buildNode() throws IOException {
+            if (nextNode == kinds.length)
+                throw new IOException("Corrupt rope index: missing nodes");
+            final byte kind = kinds[nextNode++];
+            final M sum = codec.read(in);
+            if (kind == ASCII_LEAF || kind == UTF16_LEAF)
+                return Rope.leaf(factory, leaves.get(nextLeaf++), sum);
+            final Rope<M> a = buildNode();
+            final Rope<M> b = buildNode();
+            final Rope<M> c = (kind == NODE3) ? buildNode() : null;
+            if (a.getHeight() != b.getHeight() || (c != null && c.getHeight() != a.getHeight()))
+                throw new IOException("Corrupt rope index: unbalanced tree");
+            return Rope.node(a, b, c, sum);
+        }
+    }
+}
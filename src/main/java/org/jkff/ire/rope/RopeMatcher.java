@@ -0,0 +1,416 @@
+package org.jkff.ire.rope;
+
+import org.jetbrains.annotations.Nullable;
+import org.jkff.ire.DFAMatcher;
+import org.jkff.ire.Match;
+import org.jkff.ire.MatchList;
+import org.jkff.ire.fa.BiDFA;
+import org.jkff.ire.fa.DFA;
+import org.jkff.ire.fa.LazyDFA;
+import org.jkff.ire.fa.State;
+import org.jkff.ire.util.CharCursor;
+import org.jkff.ire.util.WrappedBitSet;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.jkff.ire.util.CollectionFactory.newArrayList;
+
+/**
+ * Finds the matches in a rope over unanchored automata (see {@link BiDFA#isUnanchored()}),
+ * remembering in every node the matches that lie inside it.
+ *
+ * With such automata a match of a pattern is reported wherever some match of it ends,
+ * starting at the nearest start, and both depend only on the text in between. So the
+ * matches inside a node are those inside its children plus those that start before
+ * a boundary between two children and end after it; a node only remembers the latter,
+ * relative to its own start, and a leaf remembers all of its matches. Nodes shared by
+ * an edited rope with the original one keep their matches, and only new nodes are
+ * looked at. Looking at a boundary takes as long as a match may straddle it: usually
+ * about as long as the longest match, but with patterns like "a.*b" up to the whole node.
+ * The remembered matches take memory in proportion to their number, so only queries that
+ * return them all or count them use the nodes; streaming ones scan the rope instead.
+ *
+ * Created on: 18.10.2026 21:12:05
+ */
+class RopeMatcher<ST extends State> {
+    private final BiDFA<Character, ST> bidfa;
+    private final DFA<Character, ST> forwardDFA;
+    private final LazyDFA<ST> forward;
+    private final ST initial;
+    private final int numPatterns;
+    // Match lengths by pattern at the current end, see DFAMatcher.findMatchLengths.
+    private final int[] matchLengths;
+
+    RopeMatcher(final BiDFA<Character, ST> bidfa) {
+        this.bidfa = bidfa;
+        this.numPatterns = bidfa.getNumPatterns();
+        this.forwardDFA = bidfa.getForward();
+        this.forward = bidfa.getForwardCache();
+        this.initial = forwardDFA.getInitialState();
+        this.matchLengths = new int[numPatterns];
+    }
+
+    /**
+     * All the matches, in order of their ends, then patterns: those remembered by
+     * every node, gathered into one list and sorted.
+     */
+    MatchList getMatches(final Rope<RopeBasedIS.TransferFunctions<ST>> rope) {
+        final MatchList res = new MatchList(matchesOf(rope).total);
+        collect(rope, 0, res);
+        res.sortByEnd();
+        return res;
+    }
+
+    private static void collect(final Rope<?> node, final int offset, final MatchList res) {
+        final NodeMatches own = (NodeMatches) node.getMemo();
+        if (own.total == 0)
+            return;
+        for (int i = 0; i < own.size(); ++i) {
+            res.add(own.patterns[i], offset + own.starts[i], own.lengths[i]);
+        }
+        int childOffset = offset;
+        for (int i = 0; i < node.getNumChildren(); ++i) {
+            collect(node.getChild(i), childOffset, res);
+            childOffset += node.getChild(i).length();
+        }
+    }
+
+    /**
+     * The matches lying within start..end (and, if includeCrossing, those that
+     * overlap it), found without the remembered matches: the state at 'start' is
+     * folded from the sums of the nodes before it, and only the range is scanned,
+     * plus as far past its end as a crossing match may reach.
+     */
+    MatchList getMatches(
+            final Rope<RopeBasedIS.TransferFunctions<ST>> rope,
+            final int start, final int end, final boolean includeCrossing)
+    {
+        final RopeBasedIS<ST> text = new RopeBasedIS<>(bidfa, rope);
+        final NodeMatches.Builder found = new NodeMatches.Builder();
+        if (!includeCrossing) {
+            scan(text, start, end, initial, null, found);
+        } else {
+            // Scanning from the state at 'start' reports the matches ending within the range
+            // wherever they start; past the end, only those that started before it.
+            scan(text, start, end, stateAt(rope, start), null, found);
+            final ST x = stateAt(rope, end);
+            if (!x.equals(initial))
+                scan(text, end, text.length(), x, initial, found);
+        }
+        final MatchList res = new MatchList(found.size);
+        for (int i = 0; i < found.size; ++i) {
+            res.add(found.patterns[i], found.starts[i], found.lengths[i]);
+        }
+        return res;
+    }
+
+    // The state at 'index' after scanning from the start, with the patterns it terminates reset.
+    private ST stateAt(final Rope<RopeBasedIS.TransferFunctions<ST>> rope, final int index) {
+        return reset(rope.foldRange(
+                0, index, initial,
+                (st, r) -> r.getSum().forward.next(st),
+                (st, c) -> forward.getState(forward.next(forward.intern(st), c))));
+    }
+
+    /**
+     * The last match, i.e. that of the greatest pattern among those ending last. With the
+     * state at the start of a child, reset, the child's forward function terminates some
+     * pattern iff a match ends in the child; so, from the root, this descends into the
+     * last such child, like splitAfterBackRise, and scans only the leaf it ends up in.
+     */
+    @Nullable
+    Match findLast(final Rope<RopeBasedIS.TransferFunctions<ST>> rope) {
+        return findLast(new RopeBasedIS<>(bidfa, rope), rope, 0, initial);
+    }
+
+    @Nullable
+    private Match findLast(
+            final RopeBasedIS<ST> text, final Rope<RopeBasedIS.TransferFunctions<ST>> node,
+            final int offset, final ST state)
+    {
+        if (node.getBlock() != null) {
+            final CharCursor cursor = text.cursor(offset);
+            ST x = state;
+            int id = forward.intern(x);
+            int lastEnd = -1;
+            WrappedBitSet lastTerm = null;
+            for (int end = offset + 1; end <= offset + node.length(); ++end) {
+                id = forward.next(forward.idOf(id, x), cursor.next());
+                x = forward.getState(id);
+                if (forward.hasTerminatedPatterns(id)) {
+                    lastEnd = end;
+                    lastTerm = forward.getTerminatedPatterns(id);
+                    x = reset(x);
+                    id = forward.intern(x);
+                }
+            }
+            if (lastTerm == null)
+                return null;
+            int pattern = lastTerm.nextSetBit(0);
+            for (int p = pattern; p >= 0; p = lastTerm.nextSetBit(p + 1)) {
+                pattern = p;
+            }
+            final int length = DFAMatcher.findMatchLength(bidfa, text, lastEnd, pattern);
+            return new Match(pattern, lastEnd - length, length);
+        }
+        final List<ST> starts = newArrayList();
+        ST s = state;
+        for (int i = 0; i < node.getNumChildren(); ++i) {
+            starts.add(s);
+            s = reset(node.getChild(i).getSum().forward.next(s));
+        }
+        int childEnd = offset + node.length();
+        for (int i = node.getNumChildren() - 1; i >= 0; --i) {
+            final Rope<RopeBasedIS.TransferFunctions<ST>> child = node.getChild(i);
+            final WrappedBitSet tp = child.getSum().forward.next(starts.get(i)).getTerminatedPatterns();
+            if (tp != null && !tp.isEmpty())
+                return findLast(text, child, childEnd - child.length(), starts.get(i));
+            childEnd -= child.length();
+        }
+        return null;
+    }
+
+    int[] countMatches(final Rope<RopeBasedIS.TransferFunctions<ST>> rope) {
+        final NodeMatches m = matchesOf(rope);
+        return (m.counts == null) ? new int[numPatterns] : m.counts.clone();
+    }
+
+    /**
+     * Counts the matches lying within start..end: those of the nodes inside
+     * the range as a whole, and only along the two paths to its ends one by one.
+     */
+    int[] countMatches(final Rope<RopeBasedIS.TransferFunctions<ST>> rope, final int start, final int end) {
+        matchesOf(rope);
+        final int[] res = new int[numPatterns];
+        count(rope, 0, start, end, res);
+        return res;
+    }
+
+    private static void count(final Rope<?> node, final int offset, final int start, final int end, final int[] res) {
+        final NodeMatches m = (NodeMatches) node.getMemo();
+        final int nodeEnd = offset + node.length();
+        if (m.total == 0 || nodeEnd <= start || end <= offset)
+            return;
+        if (start <= offset && nodeEnd <= end) {
+            for (int p = 0; p < res.length; ++p) {
+                res[p] += m.counts[p];
+            }
+            return;
+        }
+        for (int i = 0; i < m.size(); ++i) {
+            final int matchStart = offset + m.starts[i];
+            if (matchStart >= start && matchStart + m.lengths[i] <= end)
+                ++res[m.patterns[i]];
+        }
+        int childOffset = offset;
+        for (int i = 0; i < node.getNumChildren(); ++i) {
+            count(node.getChild(i), childOffset, start, end, res);
+            childOffset += node.getChild(i).length();
+        }
+    }
+
+    private NodeMatches matchesOf(final Rope<RopeBasedIS.TransferFunctions<ST>> node) {
+        final NodeMatches memo = (NodeMatches) node.getMemo();
+        if (memo != null)
+            return memo;
+
+        final NodeMatches.Builder found = new NodeMatches.Builder();
+        final RopeBasedIS<ST> text = new RopeBasedIS<>(bidfa, node);
+        final NodeMatches[] children = new NodeMatches[node.getNumChildren()];
+        if (node.getBlock() != null) {
+            // Only scan leaves that have a match at all.
+            final WrappedBitSet tp = node.getSum().forward.next(initial).getTerminatedPatterns();
+            if (tp != null && !tp.isEmpty())
+                scan(text, 0, text.length(), initial, null, found);
+        } else {
+            int boundary = 0;
+            for (int i = 0; i < node.getNumChildren(); ++i) {
+                final Rope<RopeBasedIS.TransferFunctions<ST>> child = node.getChild(i);
+                children[i] = matchesOf(child);
+                boundary += child.length();
+                if (i + 1 < node.getNumChildren()) {
+                    // Matches starting in this child (and not later) and ending after it.
+                    final ST x = reset(child.getSum().forward.next(initial));
+                    if (!x.equals(initial))
+                        scan(text, boundary, text.length(), x, initial, found);
+                }
+            }
+        }
+        final NodeMatches res = found.build(numPatterns, children);
+        node.setMemo(res);
+        return res;
+    }
+
+    // Steps 'x' through the text from 'from' to 'to', recording the matches it reports that
+    // 'y' (if not null) started at the same position doesn't; stops once they coincide.
+    private void scan(
+            final RopeBasedIS<ST> text, final int from, final int to,
+            final ST x0, final ST y0, final NodeMatches.Builder found)
+    {
+        final CharCursor cursor = text.cursor(from);
+        ST x = x0;
+        ST y = y0;
+        int xId = forward.intern(x);
+        int yId = (y == null) ? -1 : forward.intern(y);
+        for (int end = from + 1; end <= to; ++end) {
+            final char c = cursor.next();
+            // Stepping one state may flush the cache and invalidate the other's id.
+            xId = forward.next(forward.idOf(xId, x), c);
+            x = forward.getState(xId);
+            if (y != null) {
+                yId = forward.next(forward.idOf(yId, y), c);
+                y = forward.getState(yId);
+                xId = forward.idOf(xId, x);
+            }
+            if (forward.hasTerminatedPatterns(xId)) {
+                final WrappedBitSet tx = forward.getTerminatedPatterns(xId);
+                final WrappedBitSet ty = (y == null) ? null : forward.getTerminatedPatterns(forward.idOf(yId, y));
+                WrappedBitSet fresh = tx;
+                for (int p = (ty == null) ? -1 : ty.nextSetBit(0); p >= 0; p = ty.nextSetBit(p + 1)) {
+                    if (fresh.get(p)) {
+                        if (fresh == tx)
+                            fresh = tx.makeCopy();
+                        fresh.clear(p);
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    DFAMatcher.findMatchLengths(bidfa, text, end, fresh, matchLengths);
+                    for (int p = fresh.nextSetBit(0); p >= 0; p = fresh.nextSetBit(p + 1)) {
+                        found.add(p, end - matchLengths[p], matchLengths[p]);
+                    }
+                }
+                x = reset(x);
+                xId = forward.intern(x);
+            }
+            if (y != null) {
+                yId = forward.idOf(yId, y);
+                if (forward.hasTerminatedPatterns(yId)) {
+                    y = reset(y);
+                    yId = forward.intern(y);
+                }
+                xId = forward.idOf(xId, x);
+                if (xId == yId)
+                    return;
+            }
+        }
+    }
+
+    private ST reset(final ST state) {
+        final WrappedBitSet tp = state.getTerminatedPatterns();
+        if (tp == null)
+            return state;
+        ST res = state;
+        for (int p = tp.nextSetBit(0); p >= 0; p = tp.nextSetBit(p + 1)) {
+            res = forwardDFA.resetTerminatedPattern(res, p);
+        }
+        return res;
+    }
+
+    // The matches a node remembers, relative to its start and sorted by end, then
+    // pattern; and how many there are in its subtree: in total and of each pattern.
+    private static class NodeMatches {
+        private static final int[] NONE = new int[0];
+
+        final int total;
+        final int[] counts; // null if total == 0
+        final int[] patterns;
+        final int[] starts;
+        final int[] lengths;
+
+        private NodeMatches(
+                final int total, final int[] counts,
+                final int[] patterns, final int[] starts, final int[] lengths)
+        {
+            this.total = total;
+            this.counts = counts;
+            this.patterns = patterns;
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        int size() {
+            return patterns.length;
+        }
+
+        static class Builder {
+            private int[] patterns = NONE;
+            private int[] starts = NONE;
+            private int[] lengths = NONE;
+            private int size;
+
+            void add(final int pattern, final int start, final int length) {
+                if (size == patterns.length) {
+                    final int capacity = Math.max(4, 2 * size);
+                    patterns = Arrays.copyOf(patterns, capacity);
+                    starts = Arrays.copyOf(starts, capacity);
+                    lengths = Arrays.copyOf(lengths, capacity);
+                }
+                patterns[size] = pattern;
+                starts[size] = start;
+                lengths[size] = length;
+                ++size;
+            }
+
+            NodeMatches build(final int numPatterns, final NodeMatches[] children) {
+                sortByEnd();
+                int total = size;
+                int[] counts = null;
+                int numNonEmpty = 0;
+                for (final NodeMatches child : children) {
+                    total += child.total;
+                    if (child.total > 0) {
+                        ++numNonEmpty;
+                        counts = child.counts;
+                    }
+                }
+                // Share the counts of the only child that has any matches, if nothing is added to them.
+                if (size > 0 || numNonEmpty > 1) {
+                    counts = new int[numPatterns];
+                    for (final NodeMatches child : children) {
+                        for (int p = 0; child.counts != null && p < numPatterns; ++p) {
+                            counts[p] += child.counts[p];
+                        }
+                    }
+                    for (int i = 0; i < size; ++i) {
+                        ++counts[patterns[i]];
+                    }
+                }
+                return new NodeMatches(
+                        total, counts,
+                        Arrays.copyOf(patterns, size), Arrays.copyOf(starts, size), Arrays.copyOf(lengths, size));
+            }
+
+            // Matches found at one boundary come sorted, but may interleave with the next one's.
+            private void sortByEnd() {
+                boolean sorted = true;
+                for (int i = 1; i < size && sorted; ++i) {
+                    sorted = compare(i - 1, i) <= 0;
+                }
+                if (sorted)
+                    return;
+                final Integer[] order = new Integer[size];
+                for (int i = 0; i < size; ++i) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, this::compare);
+                final int[] p = new int[size];
+                final int[] s = new int[size];
+                final int[] l = new int[size];
+                for (int i = 0; i < size; ++i) {
+                    p[i] = patterns[order[i]];
+                    s[i] = starts[order[i]];
+                    l[i] = lengths[order[i]];
+                }
+                patterns = p;
+                starts = s;
+                lengths = l;
+            }
+
+            private int compare(final int i, final int j) {
+                final int c = Integer.compare(starts[i] + lengths[i], starts[j] + lengths[j]);
+                return (c != 0) ? c : Integer.compare(patterns[i], patterns[j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.jkff.ire.rope;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Chars of a rope: the rest of the current leaf, then the subtrees
+ * in 'pending'. Splits hand out the first half of the pending subtrees,
+ * expanding a lone subtree into its children first; a lone leaf is cut
+ * in the middle.
+ *
+ * Created on: 18.10.2026 18:52:15
+ */
+class RopeSpliterator implements Spliterator.OfInt {
+    // Leaves shorter than this aren't worth cutting into separately processed parts.
+    private static final int MIN_SPLIT_LENGTH = 1024;
+
+    private final Deque<Rope<?>> pending;
+
+    private TextBlock leaf = TextBlock.EMPTY;
+    private int offset;
+    private int leafEnd;
+
+    private long remaining;
+
+    RopeSpliterator(final Rope<?> rope) {
+        this(new ArrayDeque<>(), rope.length());
+        pending.add(rope);
+    }
+
+    private RopeSpliterator(final Deque<Rope<?>> pending, final long remaining) {
+        this.pending = pending;
+        this.remaining = remaining;
+    }
+
+    public boolean tryAdvance(final IntConsumer action) {
+        if (offset == leafEnd && !nextLeaf())
+            return false;
+        --remaining;
+        action.accept(leaf.charAt(offset++));
+        return true;
+    }
+
+    public void forEachRemaining(final IntConsumer action) {
+        do {
+            final TextBlock s = leaf;
+            for (int i = offset; i < leafEnd; ++i) {
+                action.accept(s.charAt(i));
+            }
+            remaining -= leafEnd - offset;
+            offset = leafEnd;
+        } while (nextLeaf());
+    }
+
+    private boolean nextLeaf() {
+        while (!pending.isEmpty()) {
+            final Rope<?> r = pending.pollFirst();
+            if (r.getBlock() != null) {
+                leaf = r.getBlock();
+                offset = 0;
+                leafEnd = leaf.length();
+                if (leafEnd > 0)
+                    return true;
+            } else {
+                for (int i = r.getNumChildren() - 1; i >= 0; --i) {
+                    pending.addFirst(r.getChild(i));
+                }
+            }
+        }
+        return false;
+    }
+
+    public Spliterator.OfInt trySplit() {
+        if (pending.size() == 1 && pending.peekFirst().getBlock() == null) {
+            final Rope<?> r = pending.pollFirst();
+            for (int i = 0; i < r.getNumChildren(); ++i) {
+                pending.addLast(r.getChild(i));
+            }
+        }
+        if (pending.size() >= 2) {
+            final Deque<Rope<?>> prefix = new ArrayDeque<>();
+            long prefixLength = leafEnd - offset;
+            for (int n = pending.size() / 2; n > 0; --n) {
+                final Rope<?> r = pending.pollFirst();
+                prefix.addLast(r);
+                prefixLength += r.length();
+            }
+            final RopeSpliterator res = new RopeSpliterator(prefix, prefixLength);
+            res.leaf = leaf;
+            res.offset = offset;
+            res.leafEnd = leafEnd;
+            offset = leafEnd;
+            remaining -= prefixLength;
+            return res;
+        }
+        if (pending.isEmpty() && leafEnd - offset >= MIN_SPLIT_LENGTH) {
+            final int mid = (offset + leafEnd) >>> 1;
+            final RopeSpliterator res = new RopeSpliterator(new ArrayDeque<>(), mid - offset);
+            res.leaf = leaf;
+            res.offset = offset;
+            res.leafEnd = mid;
+            offset = mid;
+            remaining -= mid - res.offset;
+            return res;
+        }
+        return null;
+    }
+
+    public long estimateSize() {
+        return remaining;
+    }
+
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+    }
+}
@@ -0,0 +1,216 @@
+package org.jkff.ire.rope;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text of a rope leaf: a view of length() chars starting at some offset
+ * of a backing array, which is shared between views.
+ *
+ * Text in which every char fits into Latin-1 is stored one byte per char,
+ * other text as chars; ASCII text may also be a view of a (memory-mapped)
+ * ByteBuffer. Taking a subsequence doesn't copy anything, so splitting
+ * a leaf is cheap; but a small view keeps the whole backing array alive.
+ * Concatenation copies into a fresh array.
+ *
+ * Created on: 18.10.2026 19:26:40
+ */
+abstract class TextBlock implements CharSequence {
+    static final TextBlock EMPTY = new Latin1(new byte[0], 0, 0);
+
+    final int offset;
+    final int length;
+
+    private TextBlock(final int offset, final int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    static TextBlock of(final String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) > 0xFF) {
+                return new Chars(s.toCharArray(), 0, s.length());
+            }
+        }
+        return new Latin1(s.getBytes(StandardCharsets.ISO_8859_1), 0, s.length());
+    }
+
+    /**
+     * A view of length bytes of the buffer from the given offset, which must all be ASCII.
+     */
+    static TextBlock ofAscii(final ByteBuffer buffer, final int offset, final int length) {
+        return new Ascii(buffer, offset, length);
+    }
+
+    public final int length() {
+        return length;
+    }
+
+    public abstract TextBlock subSequence(int start, int end);
+
+    abstract void getChars(int start, int end, char[] dst, int dstBegin);
+
+    TextBlock concat(final TextBlock other) {
+        if (other.length == 0)
+            return this;
+        if (this.length == 0)
+            return other;
+        if (this.isLatin1() && other.isLatin1()) {
+            final byte[] res = new byte[this.length + other.length];
+            this.getLatin1(res, 0);
+            other.getLatin1(res, this.length);
+            return new Latin1(res, 0, res.length);
+        }
+        final char[] res = new char[this.length + other.length];
+        this.getChars(0, this.length, res, 0);
+        other.getChars(0, other.length, res, this.length);
+        return new Chars(res, 0, res.length);
+    }
+
+    abstract void appendTo(StringBuilder sb);
+
+    boolean isLatin1() {
+        return false;
+    }
+
+    /**
+     * Copies the chars as bytes, if isLatin1().
+     */
+    void getLatin1(final byte[] dst, final int dstBegin) {
+        throw new UnsupportedOperationException();
+    }
+
+    void checkIndex(final int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " of " + length);
+    }
+
+    void checkRange(final int start, final int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " of " + length);
+    }
+
+    private static class Latin1 extends TextBlock {
+        private final byte[] bytes;
+
+        private Latin1(final byte[] bytes, final int offset, final int length) {
+            super(offset, length);
+            this.bytes = bytes;
+        }
+
+        public char charAt(final int index) {
+            checkIndex(index);
+            return (char) (bytes[offset + index] & 0xFF);
+        }
+
+        public TextBlock subSequence(final int start, final int end) {
+            checkRange(start, end);
+            return (start == 0 && end == length) ? this : new Latin1(bytes, offset + start, end - start);
+        }
+
+        boolean isLatin1() {
+            return true;
+        }
+
+        void getLatin1(final byte[] dst, final int dstBegin) {
+            System.arraycopy(bytes, offset, dst, dstBegin, length);
+        }
+
+        void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+            checkRange(start, end);
+            for (int i = start; i < end; ++i) {
+                dst[dstBegin + i - start] = (char) (bytes[offset + i] & 0xFF);
+            }
+        }
+
+        void appendTo(final StringBuilder sb) {
+            for (int i = 0; i < length; ++i) {
+                sb.append((char) (bytes[offset + i] & 0xFF));
+            }
+        }
+
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static class Ascii extends TextBlock {
+        private final ByteBuffer buffer;
+
+        private Ascii(final ByteBuffer buffer, final int offset, final int length) {
+            super(offset, length);
+            this.buffer = buffer;
+        }
+
+        public char charAt(final int index) {
+            checkIndex(index);
+            return (char) buffer.get(offset + index);
+        }
+
+        public TextBlock subSequence(final int start, final int end) {
+            checkRange(start, end);
+            return (start == 0 && end == length) ? this : new Ascii(buffer, offset + start, end - start);
+        }
+
+        boolean isLatin1() {
+            return true;
+        }
+
+        void getLatin1(final byte[] dst, final int dstBegin) {
+            final ByteBuffer b = buffer.duplicate();
+            b.position(offset);
+            b.get(dst, dstBegin, length);
+        }
+
+        void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+            checkRange(start, end);
+            for (int i = start; i < end; ++i) {
+                dst[dstBegin + i - start] = (char) buffer.get(offset + i);
+            }
+        }
+
+        void appendTo(final StringBuilder sb) {
+            for (int i = 0; i < length; ++i) {
+                sb.append((char) buffer.get(offset + i));
+            }
+        }
+
+        public String toString() {
+            final byte[] bytes = new byte[length];
+            getLatin1(bytes, 0);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static class Chars extends TextBlock {
+        private final char[] chars;
+
+        private Chars(final char[] chars, final int offset, final int length) {
+            super(offset, length);
+            this.chars = chars;
+        }
+
+        public char charAt(final int index) {
+            checkIndex(index);
+            return chars[offset + index];
+        }
+
+        public TextBlock subSequence(final int start, final int end) {
+            checkRange(start, end);
+            return (start == 0 && end == length) ? this : new Chars(chars, offset + start, end - start);
+        }
+
+        void getChars(final int start, final int end, final char[] dst, final int dstBegin) {
+            checkRange(start, end);
+            System.arraycopy(chars, offset + start, dst, dstBegin, end - start);
+        }
+
+        void appendTo(final StringBuilder sb) {
+            sb.append(chars, offset, length);
+        }
+
+        public String toString() {
+            return new String(chars, offset, length);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.jkff.ire.util;
+
+/**
+ * A position between two chars of a text, movable in both directions,
+ * like a {@link java.util.ListIterator} over chars.
+ *
+ * Created on: 18.10.2026 18:21:47
+ */
+public interface CharCursor {
+    /**
+     * Index of the char that next() would return.
+     */
+    int position();
+
+    boolean hasNext();
+
+    /**
+     * Returns the char after the cursor and moves past it.
+     * @throws java.util.NoSuchElementException at the end of the text
+     */
+    char next();
+
+    boolean hasPrev();
+
+    /**
+     * Returns the char before the cursor and moves before it.
+     * @throws java.util.NoSuchElementException at the beginning of the text
+     */
+    char prev();
+
+    /**
+     * Moves the cursor before the char with the given index (which may be the text's length).
+     */
+    void seek(int position);
+}
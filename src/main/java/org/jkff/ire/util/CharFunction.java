@@ -0,0 +1,10 @@
+package org.jkff.ire.util;
+
+/**
+ * A {@link Function} from chars that doesn't box its argument.
+ *
+ * Created on: 18.10.2026 16:02:37
+ */
+public interface CharFunction<B> {
+    B applyTo(char c);
+}
@@ -0,0 +1,10 @@
+package org.jkff.ire.util;
+
+/**
+ * A {@link Function2} that advances a state by a char without boxing it.
+ *
+ * Created on: 18.10.2026 16:03:10
+ */
+public interface CharStepper<S> {
+    S applyTo(S s, char c);
+}
@@ -1,12 +1,12 @@
 package org.jkff.ire.util;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
  * Created on: 13.10.2010 21:44:19
  */
 public class CoarsestPartition {
-    public static int[] coarsestStablePartition(int[] p, final int[][] edges) {
+    public static int[] coarsestStablePartition(final int[] p, final int[][] edges) {
         // Find the coarsest refining 'q' of the partition 'p' such that
         // for every two blocks B1 and B2 of 'q', either in(B1) = B2,
         // or in(B1) is disjoint with B2.
@@ -14,79 +14,310 @@ public class CoarsestPartition {
         // p and q are specified as a mapping to equivalence classes (blocks).
         // edges is an array of 2-element arrays.
 
-        // An extremely naive and inefficient implementation.
-        // There exists an O(m log n) one, described in "Three partitioning algorithms"
-        // by Paigue and Tarjan, 1987. However I'm too lazy to implement it,
-
-        boolean anythingChanged;
-        do {
-            anythingChanged = false;
-            // Refine p with respect to each block of p.
-            final Map<Integer, List<Integer>> pBlocks = CollectionFactory.newLinkedHashMap();
-            for (int i = 0; i < p.length; ++i) {
-                List<Integer> block = pBlocks.get(p[i]);
-                if (block == null) {
-                    pBlocks.put(p[i], block = CollectionFactory.newArrayList());
-                }
-                block.add(i);
+        // This is the O(m log n) algorithm from "Three partition refinement algorithms"
+        // by Paige and Tarjan, 1987. Blocks of 'p' that don't get split keep their number,
+        // new blocks get numbers greater than any in 'p'; so if 'p' is already stable,
+        // the result is equal to it.
+        return new CoarsestPartition(p, edges).refine();
+    }
+
+    private final int n;
+
+    // Incoming edges of each element: edge ids inEdges[inStart[y]..inStart[y+1]).
+    private final int[] inStart;
+    private final int[] inEdges;
+    private final int[] edgeSrc;
+
+    // Blocks of the current partition: elems[blockStart[b]..blockEnd[b]) with
+    // the first blockMarked[b] of them marked for splitting off.
+    private final int[] elems;
+    private final int[] pos;
+    private final int[] blockOf;
+    private final int[] blockStart;
+    private final int[] blockEnd;
+    private final int[] blockMarked;
+    private final int[] blockName;
+    private int numBlocks;
+    private int maxName;
+
+    private final int[] touched;
+
+    // Compound blocks: doubly linked lists of blocks.
+    private final int[] compoundOf;
+    private final int[] compoundHead;
+    private final int[] compoundSize;
+    private final int[] nextInCompound;
+    private final int[] prevInCompound;
+    private int numCompounds;
+
+    // Compound blocks consisting of more than 1 block.
+    private final int[] splittable;
+    private final boolean[] isSplittable;
+    private int numSplittable;
+
+    // count(x, S) for every element x and compound block S containing some of its successors;
+    // edgeCount[e] is the record for e = (x, y) and the S containing y.
+    private int[] counts;
+    private int numCounts;
+    private final int[] edgeCount;
+
+    private CoarsestPartition(final int[] p, final int[][] edges) {
+        n = p.length;
+        final int m = edges.length;
+
+        inStart = new int[n + 1];
+        inEdges = new int[m];
+        edgeSrc = new int[m];
+        for (final int[] edge : edges) {
+            ++inStart[edge[1] + 1];
+        }
+        for (int y = 0; y < n; ++y) {
+            inStart[y + 1] += inStart[y];
+        }
+        final int[] fill = Arrays.copyOf(inStart, n);
+        for (int e = 0; e < m; ++e) {
+            edgeSrc[e] = edges[e][0];
+            inEdges[fill[edges[e][1]]++] = e;
+        }
+
+        elems = new int[n];
+        pos = new int[n];
+        blockOf = new int[n];
+        blockStart = new int[n];
+        blockEnd = new int[n];
+        blockMarked = new int[n];
+        blockName = new int[n];
+        touched = new int[n];
+
+        compoundOf = new int[n];
+        compoundHead = new int[n];
+        compoundSize = new int[n];
+        nextInCompound = new int[n];
+        prevInCompound = new int[n];
+
+        splittable = new int[n];
+        isSplittable = new boolean[n];
+
+        counts = new int[Math.max(16, n + m)];
+        edgeCount = new int[m];
+
+        // Initial blocks are those of 'p', all of them in a single compound block.
+        final long[] byBlock = new long[n];
+        for (int i = 0; i < n; ++i) {
+            byBlock[i] = ((long) p[i] << 32) | i;
+        }
+        Arrays.sort(byBlock);
+        maxName = -1;
+        for (int i = 0; i < n; ++i) {
+            final int x = (int) byBlock[i];
+            if (i == 0 || p[x] != p[elems[i - 1]]) {
+                final int b = numBlocks++;
+                blockStart[b] = i;
+                blockName[b] = p[x];
+                addToCompound(b, 0);
+            }
+            final int b = numBlocks - 1;
+            elems[i] = x;
+            pos[x] = i;
+            blockOf[x] = b;
+            blockEnd[b] = i + 1;
+            maxName = Math.max(maxName, p[x]);
+        }
+        if (n > 0) {
+            numCompounds = 1;
+        }
+    }
+
+    private int[] refine() {
+        if (n == 0) {
+            return new int[0];
+        }
+
+        // Stabilize with respect to the whole universe: separate elements
+        // with successors from those without. Also count successors.
+        final int[] hasOut = new int[n];
+        int numHasOut = 0;
+        final int[] outCount = new int[n];
+        Arrays.fill(outCount, -1);
+        for (int e = 0; e < edgeSrc.length; ++e) {
+            final int x = edgeSrc[e];
+            if (outCount[x] == -1) {
+                outCount[x] = newCount(0);
+                hasOut[numHasOut++] = x;
+            }
+            ++counts[outCount[x]];
+            edgeCount[e] = outCount[x];
+        }
+        split(hasOut, numHasOut);
+        if (compoundSize[0] > 1) {
+            pushSplittable(0);
+        }
+
+        final int[] bElems = new int[n];
+        final int[] pre = new int[n];
+        final int[] preOnly = new int[n];
+        final int[] countB = new int[n];
+        final int[] countBRecord = new int[n];
+        Arrays.fill(countBRecord, -1);
+        final boolean[] inPreOnly = new boolean[n];
+
+        while (numSplittable > 0) {
+            // Take out a block B of at most half the size of its compound block S
+            // and make it a compound block on its own.
+            final int s = splittable[numSplittable - 1];
+            final int b1 = compoundHead[s];
+            final int b2 = nextInCompound[b1];
+            final int b = (size(b1) <= size(b2)) ? b1 : b2;
+            removeFromCompound(b, s);
+            if (compoundSize[s] < 2) {
+                isSplittable[s] = false;
+                --numSplittable;
             }
+            addToCompound(b, numCompounds++);
 
-            final Map<Integer, List<Integer>> ins = CollectionFactory.newLinkedHashMap();
-            for (final int[] edge : edges) {
-                final int src = edge[0];
-                final int dst = edge[1];
-                List<Integer> is = ins.get(dst);
-                if (is == null) {
-                    ins.put(dst, is = CollectionFactory.newArrayList());
+            final int bSize = size(b);
+            System.arraycopy(elems, blockStart[b], bElems, 0, bSize);
+
+            // Refine with respect to B: compute pre(B) and count(x, B).
+            int numPre = 0;
+            for (int i = 0; i < bSize; ++i) {
+                final int y = bElems[i];
+                for (int j = inStart[y]; j < inStart[y + 1]; ++j) {
+                    final int x = edgeSrc[inEdges[j]];
+                    if (countB[x]++ == 0) {
+                        pre[numPre++] = x;
+                    }
                 }
-                is.add(src);
             }
+            split(pre, numPre);
 
-            int[] q = Arrays.copyOf(p, p.length);
-            for (final List<Integer> block : pBlocks.values()) {
-                final Set<Integer> in = CollectionFactory.newLinkedHashSet();
-                for (final int member : block) {
-                    final List<Integer> curIn = ins.get(member);
-                    if (curIn != null) in.addAll(curIn);
+            // Refine with respect to S - B: those in pre(B) - pre(S - B)
+            // have all their edges into S going into B.
+            int numPreOnly = 0;
+            for (int i = 0; i < bSize; ++i) {
+                final int y = bElems[i];
+                for (int j = inStart[y]; j < inStart[y + 1]; ++j) {
+                    final int e = inEdges[j];
+                    final int x = edgeSrc[e];
+                    if (!inPreOnly[x] && countB[x] == counts[edgeCount[e]]) {
+                        inPreOnly[x] = true;
+                        preOnly[numPreOnly++] = x;
+                    }
                 }
-                final int[] newQ = refine(q, in);
-                if (!Arrays.equals(q, newQ)) {
-                    anythingChanged = true;
-                    q = newQ;
+            }
+            split(preOnly, numPreOnly);
+            for (int i = 0; i < numPreOnly; ++i) {
+                inPreOnly[preOnly[i]] = false;
+            }
+
+            // Update counts: edges into B now count towards B rather than S.
+            for (int i = 0; i < bSize; ++i) {
+                final int y = bElems[i];
+                for (int j = inStart[y]; j < inStart[y + 1]; ++j) {
+                    final int e = inEdges[j];
+                    final int x = edgeSrc[e];
+                    --counts[edgeCount[e]];
+                    if (countBRecord[x] == -1) {
+                        countBRecord[x] = newCount(countB[x]);
+                    }
+                    edgeCount[e] = countBRecord[x];
                 }
             }
-            p = q;
-        } while (anythingChanged);
-        return p;
+            for (int i = 0; i < numPre; ++i) {
+                countB[pre[i]] = 0;
+                countBRecord[pre[i]] = -1;
+            }
+        }
+
+        final int[] q = new int[n];
+        for (int x = 0; x < n; ++x) {
+            q[x] = blockName[blockOf[x]];
+        }
+        return q;
     }
 
-    private static int[] refine(final int[] q, final Set<Integer> s) {
-        // Make it so that every block is either contained in S
-        // or doesn't intersect it.
-        int maxBlock = 0;
-        for (final int c : q) maxBlock = Math.max(c, maxBlock);
-        final Map<Integer, Integer> block2size = CollectionFactory.newLinkedHashMap();
-        final Map<Integer, Integer> block2covered = CollectionFactory.newLinkedHashMap();
-        for (int i = 0; i < q.length; ++i) {
-            final int block = q[i];
-            if (!block2size.containsKey(block)) block2size.put(block, 0);
-            block2size.put(block, block2size.get(block) + 1);
-            if (s.contains(i)) {
-                if (!block2covered.containsKey(block)) block2covered.put(block, 0);
-                block2covered.put(block, block2covered.get(block) + 1);
+    // Makes every block either contained in xs[0..k) or disjoint with it.
+    // xs must not contain duplicates.
+    private void split(final int[] xs, final int k) {
+        int numTouched = 0;
+        for (int i = 0; i < k; ++i) {
+            final int x = xs[i];
+            final int b = blockOf[x];
+            if (blockMarked[b] == 0) {
+                touched[numTouched++] = b;
+            }
+            final int target = blockStart[b] + blockMarked[b]++;
+            final int y = elems[target];
+            elems[pos[x]] = y;
+            pos[y] = pos[x];
+            elems[target] = x;
+            pos[x] = target;
+        }
+        for (int i = 0; i < numTouched; ++i) {
+            final int b = touched[i];
+            final int marked = blockMarked[b];
+            blockMarked[b] = 0;
+            if (marked == size(b)) {
+                continue;
+            }
+            final int nb = numBlocks++;
+            blockStart[nb] = blockStart[b];
+            blockEnd[nb] = blockStart[b] + marked;
+            blockStart[b] = blockEnd[nb];
+            blockName[nb] = ++maxName;
+            for (int j = blockStart[nb]; j < blockEnd[nb]; ++j) {
+                blockOf[elems[j]] = nb;
+            }
+            final int s = compoundOf[b];
+            addToCompound(nb, s);
+            if (compoundSize[s] == 2) {
+                pushSplittable(s);
             }
         }
+    }
 
-        final int[] res = Arrays.copyOf(q, q.length);
+    private int size(final int b) {
+        return blockEnd[b] - blockStart[b];
+    }
 
-        for (final int block : block2size.keySet()) {
-            if (block2covered.containsKey(block) && !block2covered.get(block).equals(block2size.get(block))) {
-                // Split this block into S and B-S: Move S to a new block.
-                final int newBlock = ++maxBlock;
-                s.stream().filter(i -> q[i] == block).forEach(i -> res[i] = newBlock);
-            }
+    private void addToCompound(final int b, final int s) {
+        compoundOf[b] = s;
+        final int head = (compoundSize[s] == 0) ? -1 : compoundHead[s];
+        nextInCompound[b] = head;
+        prevInCompound[b] = -1;
+        if (head != -1) {
+            prevInCompound[head] = b;
+        }
+        compoundHead[s] = b;
+        ++compoundSize[s];
+    }
+
+    private void removeFromCompound(final int b, final int s) {
+        final int prev = prevInCompound[b];
+        final int next = nextInCompound[b];
+        if (prev == -1) {
+            compoundHead[s] = next;
+        } else {
+            nextInCompound[prev] = next;
+        }
+        if (next != -1) {
+            prevInCompound[next] = prev;
         }
+        --compoundSize[s];
+    }
 
-        return res;
+    private void pushSplittable(final int s) {
+        if (!isSplittable[s]) {
+            isSplittable[s] = true;
+            splittable[numSplittable++] = s;
+        }
+    }
+
+    private int newCount(final int value) {
+        if (numCounts == counts.length) {
+            counts = Arrays.copyOf(counts, 2 * counts.length);
+        }
+        counts[numCounts] = value;
+        return numCounts++;
     }
 }
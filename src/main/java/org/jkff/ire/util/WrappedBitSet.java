@@ -22,6 +22,7 @@ public class WrappedBitSet implements Cloneable {
         this.words = words;
         this.offset = offset;
         this.numWords = numWords;
+        this.numBits = numBits;
     }
 
     private int wordIndex(final int bitIndex) {
@@ -101,6 +102,25 @@ public class WrappedBitSet implements Cloneable {
             words[offset+i] |= set.words[set.offset+i];
     }
 
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WrappedBitSet)) return false;
+        final WrappedBitSet other = (WrappedBitSet) o;
+        if (numWords != other.numWords) return false;
+        for (int i = 0; i < numWords; ++i) {
+            if (words[offset+i] != other.words[other.offset+i])
+                return false;
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        long h = 1234;
+        for (int i = numWords; --i >= 0; )
+            h ^= words[offset+i] * (i + 1);
+        return (int)((h >> 32) ^ h);
+    }
+
     public String toString() {
         final StringBuilder b = new StringBuilder();
 
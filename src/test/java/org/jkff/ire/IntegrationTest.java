@@ -1,6 +1,8 @@
 package org.jkff.ire;
 
+import org.jkff.ire.fa.PowerIntState;
 import org.jkff.ire.regex.RegexCompiler;
+import org.jkff.ire.rope.RopeBasedIS;
 import org.junit.Ignore;
 import org.junit.Test;
 import sun.misc.BASE64Decoder;
@@ -9,11 +11,19 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 import static junit.framework.Assert.assertEquals;
+import static org.jkff.ire.util.CollectionFactory.newArrayList;
 
 /**
  * Created on: 04.09.2010 18:10:51
@@ -350,6 +360,88 @@ public class IntegrationTest {
         }
     }
 
+    @Test
+    public void testDNAIndexedInParallel() {
+        final PatternSet pat = RegexCompiler.compile("[cgt]gggtaaa|tttaccc[acg]", "agggt[cgt]aa|tt[acg]accct");
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final int blockSize : new int[] {4, 16, 128}) {
+                assertEquals(
+                        pat.match(DNA, blockSize).getMatches().toString(),
+                        pat.match(DNA, blockSize, pool).getMatches().toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLongMatches() {
+        // Matches of the 1st pattern are longer than a backward scan char by char goes.
+        final PatternSet pat = RegexCompiler.compile("ac[gt]+ca", "t[ag]c");
+        final StringBuilder sb = new StringBuilder();
+        final Random random = new Random(42);
+        for (int i = 0; i < 20; ++i) {
+            sb.append("ac");
+            for (int j = random.nextInt(3000); j > 0; --j) {
+                sb.append("gt".charAt(random.nextInt(2)));
+            }
+            sb.append("ca").append(DNA, 100 * i, 100 * i + 100);
+        }
+        final String s = sb.toString();
+        final List<String> expected = newArrayList();
+        for (int i = 0; i < 2; ++i) {
+            final Matcher m = Pattern.compile(new String[] {"ac[gt]+ca", "t[ag]c"}[i]).matcher(s);
+            for (int start = 0; m.find(start); start = m.start() + 1) {
+                expected.add(i + "@" + m.start() + "," + m.end());
+            }
+        }
+        for (final int blockSize : new int[] {4, 128}) {
+            final List<String> actual = newArrayList();
+            for (final Match m : pat.match(s, blockSize).getMatches()) {
+                actual.add(m.whichPattern() + "@" + m.startPos() + "," + (m.startPos() + m.length()));
+            }
+            assertEquals(new TreeSet<>(expected), new TreeSet<>(actual));
+        }
+    }
+
+    @Test
+    public void testDNAFromFile() throws IOException {
+        final PatternSet pat = RegexCompiler.compile("[cgt]gggtaaa|tttaccc[acg]", "agggt[cgt]aa|tt[acg]accct");
+        final Path file = Files.createTempFile("dna", ".txt");
+        try {
+            Files.write(file, DNA.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(pat.match(DNA).getMatches().toString(), pat.match(file).getMatches().toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        final DFARopePatternSet pat = RegexCompiler.compile("[cgt]gggtaaa|tttaccc[acg]", "agggt[cgt]aa|tt[acg]accct");
+        final DFARopePatternSet other = RegexCompiler.compile("gattaca", "\u0436+");
+        final Path file = Files.createTempFile("dna", ".idx");
+        try {
+            for (final String s : new String[] {"", DNA, DNA.substring(0, 1000) + "\u0436\u0436" + DNA.substring(1000)}) {
+                final RopeBasedIS<PowerIntState> is = pat.match(s, 16);
+                pat.save(is, file);
+
+                final IndexedString loaded = pat.load(file);
+                assertEquals(s, loaded.toString());
+                assertEquals(is.getMatches().toString(), loaded.getMatches().toString());
+                assertEquals(
+                        is.append(is).getMatches().toString(),
+                        loaded.append(pat.match(s, 16)).getMatches().toString());
+
+                // Saved for different patterns: indexed anew
+                assertEquals(other.match(s).getMatches().toString(), other.load(file).getMatches().toString());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
     @Test
     @Ignore("Not really a test")
     public void testPerformance() {
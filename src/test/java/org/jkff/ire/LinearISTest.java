@@ -3,12 +3,14 @@ package org.jkff.ire;
 import org.jkff.ire.fa.BiDFA;
 import org.jkff.ire.fa.IntState;
 import org.jkff.ire.fa.PowerIntState;
+import org.jkff.ire.regex.RegexCompiler;
 import org.junit.Test;
 
 import java.util.List;
 
 import static org.jkff.ire.util.CollectionFactory.newArrayList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * Created on: 31.07.2010 12:16:56
@@ -69,6 +71,14 @@ public class LinearISTest {
         assertEquals(4, matches.get(0).startPos());
     }
     
+    @Test
+    public void testMatchCursorPastReset() {
+        // Once "ab" has matched, the automaton is reset, so "abcd" isn't a match.
+        final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile("ab(cd)*").getBiDFA();
+        final MatchCursor cursor = new LinearIS<>("abcd", bidfa).matchCursor(3);
+        assertFalse(cursor.next(new MatchList()));
+    }
+
     @Test
     public void testABorAConNFA() {
         final NFABuilder forward = new NFABuilder(5, 0, 2);
@@ -0,0 +1,46 @@
+package org.jkff.ire;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on: 18.10.2026 22:06:12
+ */
+public class MatchListTest {
+    @Test
+    public void testSortFilterSearch() {
+        final MatchList list = new MatchList(1);
+        // In the order of getMatches(): by end, then pattern.
+        list.add(1, 2, 3);
+        list.add(0, 4, 2);
+        list.add(2, 1, 5);
+        list.add(0, 7, 1);
+        list.add(1, 5, 4);
+        assertEquals("[1@(2,3), 0@(4,2), 2@(1,5), 0@(7,1), 1@(5,4)]", list.toString());
+        assertEquals(5, list.size());
+        assertEquals(6, list.end(2));
+
+        assertEquals(1, list.firstEndingAfter(5));
+        assertEquals(3, list.firstEndingAfter(6));
+        assertEquals(5, list.firstEndingAfter(9));
+
+        assertEquals("[1@(2,3), 1@(5,4)]", list.filter(1).toString());
+
+        list.sortByStart();
+        assertEquals("[2@(1,5), 1@(2,3), 0@(4,2), 1@(5,4), 0@(7,1)]", list.toString());
+        assertEquals(0, list.firstStartingFrom(0));
+        assertEquals(2, list.firstStartingFrom(3));
+        assertEquals(5, list.firstStartingFrom(8));
+
+        list.sortByEnd();
+        assertEquals("[1@(2,3), 0@(4,2), 2@(1,5), 0@(7,1), 1@(5,4)]", list.toString());
+
+        int n = 0;
+        for (final Match m : list) {
+            assertEquals(list.start(n), m.startPos());
+            ++n;
+        }
+        assertEquals(5, n);
+    }
+}
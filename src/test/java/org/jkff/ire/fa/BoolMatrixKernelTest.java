@@ -0,0 +1,69 @@
+package org.jkff.ire.fa;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Created on: 18.10.2026 17:20:14
+ */
+public class BoolMatrixKernelTest {
+    @Test
+    public void testAgreesWithNaiveMultiplication() {
+        final Random r = new Random(1);
+        for (final int numStates : new int[] {1, 2, 63, 64, 65, 130, 200, 300, 513}) {
+            for (final double density : new double[] {0.0, 0.01, 0.1, 0.5, 1.0}) {
+                final int blockSize = (63 + numStates) / 64;
+                final long[] a = random(r, numStates, blockSize, density);
+                final long[] b = random(r, numStates, blockSize, density);
+                final long[] expected = naive(a, b, numStates, blockSize);
+                for (final BoolMatrixKernel kernel : new BoolMatrixKernel[] {
+                        BoolMatrixKernel.SCALAR, BoolMatrixKernel.FOUR_RUSSIANS, BoolMatrixKernel.get()})
+                {
+                    final long[] res = new long[a.length];
+                    kernel.multiply(a, b, res, numStates, blockSize);
+                    assertArrayEquals(kernel.getName() + " " + numStates + " " + density, expected, res);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFourRussiansOnlyForLargeDenseTables() {
+        final Random r = new Random(2);
+        assertSame(BoolMatrixKernel.get(), BoolMatrixKernel.forMultiplying(random(r, 100, 2, 0.9), 100));
+        assertSame(BoolMatrixKernel.get(), BoolMatrixKernel.forMultiplying(random(r, 600, 10, 0.02), 600));
+        assertSame(BoolMatrixKernel.FOUR_RUSSIANS, BoolMatrixKernel.forMultiplying(random(r, 600, 10, 0.4), 600));
+    }
+
+    private static long[] random(final Random r, final int numStates, final int blockSize, final double density) {
+        final long[] res = new long[numStates * blockSize];
+        for (int s = 0; s < numStates; ++s) {
+            for (int t = 0; t < numStates; ++t) {
+                if (r.nextDouble() < density) {
+                    res[s * blockSize + t / 64] |= 1L << t;
+                }
+            }
+        }
+        return res;
+    }
+
+    private static long[] naive(final long[] a, final long[] b, final int numStates, final int blockSize) {
+        final long[] res = new long[a.length];
+        for (int s = 0; s < numStates; ++s) {
+            for (int k = 0; k < numStates; ++k) {
+                if ((a[s * blockSize + k / 64] & (1L << k)) == 0)
+                    continue;
+                for (int t = 0; t < numStates; ++t) {
+                    if ((b[k * blockSize + t / 64] & (1L << t)) != 0) {
+                        res[s * blockSize + t / 64] |= 1L << t;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+}
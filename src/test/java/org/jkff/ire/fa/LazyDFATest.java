@@ -0,0 +1,55 @@
+package org.jkff.ire.fa;
+
+import org.jkff.ire.NFABuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created on: 18.10.2026 12:41:08
+ */
+public class LazyDFATest {
+    private static DFA<Character, PowerIntState> abOrAc() {
+        final NFABuilder b = new NFABuilder(5, 0, 2);
+        b.state(0).transitions('a', 1, 'a', 3, null, 0);
+        b.state(1).transitions('b', 2, null, 0);
+        b.state(2, 0).transitions(null, 2);
+        b.state(3).transitions('c', 4, null, 0);
+        b.state(4, 1).transitions(null, 4);
+        return b.build();
+    }
+
+    @Test
+    public void testAgreesWithTransferFunctions() {
+        final DFA<Character, PowerIntState> dfa = abOrAc();
+        final LazyDFA<PowerIntState> lazy = new LazyDFA<>(dfa);
+        final String s = "xxabacabcaacbab";
+        for (int round = 0; round < 2; ++round) {
+            PowerIntState expected = dfa.getInitialState();
+            int id = lazy.intern(expected);
+            for (int i = 0; i < s.length(); ++i) {
+                expected = dfa.transfer(s.charAt(i)).next(expected);
+                id = lazy.next(id, s.charAt(i));
+                assertEquals(expected.getSubset(), lazy.getState(id).getSubset());
+                assertEquals(!expected.getTerminatedPatterns().isEmpty(), lazy.hasTerminatedPatterns(id));
+            }
+        }
+        assertEquals(0, lazy.getNumFlushes());
+    }
+
+    @Test
+    public void testFlushKeepsResultsCorrect() {
+        final DFA<Character, PowerIntState> dfa = abOrAc();
+        final LazyDFA<PowerIntState> lazy = new LazyDFA<>(dfa, 2);
+        final String s = "abacabcaacbabxxacab";
+        PowerIntState expected = dfa.getInitialState();
+        int id = lazy.intern(expected);
+        for (int i = 0; i < s.length(); ++i) {
+            expected = dfa.transfer(s.charAt(i)).next(expected);
+            id = lazy.next(id, s.charAt(i));
+            assertEquals(expected.getSubset(), lazy.getState(id).getSubset());
+        }
+        assertTrue(lazy.getNumFlushes() > 0);
+    }
+}
@@ -1,10 +1,13 @@
 package org.jkff.ire.regex;
 
+import org.jkff.ire.fa.Alphabet;
 import org.jkff.ire.fa.DFA;
 import org.jkff.ire.fa.PowerIntState;
 import org.jkff.ire.util.WrappedBitSet;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.jkff.ire.regex.RegexCompiler.*;
 import static org.junit.Assert.*;
 
@@ -75,6 +78,55 @@ public class RegexCompilerTest {
         assertTerminatesPatterns(dfa, "aabab", false);
     }
 
+    @Test
+    public void testAlphabetPartition() {
+        final Alphabet alphabet = CharacterClass.partition(Arrays.asList(
+                CharacterClass.oneOf("ab"), CharacterClass.oneOf("bc"), CharacterClass.ANY_CHAR));
+        assertEquals(4, alphabet.getNumClasses());
+        assertTrue(alphabet.classOf('a') != alphabet.classOf('b'));
+        assertTrue(alphabet.classOf('b') != alphabet.classOf('c'));
+        assertTrue(alphabet.classOf('a') != alphabet.classOf('c'));
+        assertEquals(alphabet.classOf('x'), alphabet.classOf('\u1234'));
+        assertTrue(alphabet.classOf('a') != alphabet.classOf('x'));
+        for(int c = 0; c < alphabet.getNumClasses(); ++c) {
+            assertEquals(c, alphabet.classOf(alphabet.getRepresentative(c)));
+        }
+    }
+
+    @Test
+    public void testCharsOfOneClassShareTransferFunction() {
+        final DFA<Character,PowerIntState> dfa = toDFA(toNFA(new Labeled(
+                new Sequence(CharacterClass.oneOf("ab"), CharacterClass.oneOf("c")), 0)), 1);
+        assertSame(dfa.transfer('a'), dfa.transfer('b'));
+        assertSame(dfa.transfer('x'), dfa.transfer('y'));
+        assertTerminatesPatterns(dfa, "bc", true);
+        assertTerminatesPatterns(dfa, "yc", false);
+    }
+
+    @Test
+    public void testMaxLength() {
+        assertEquals(0, maxLength(new Empty()));
+        assertEquals(1, maxLength(RegexParser.parse("a?")));
+        assertEquals(3, maxLength(RegexParser.parse("a|b[cd]e")));
+        assertEquals(8, maxLength(RegexParser.parse("[cgt]gggtaaa|tttaccc[acg]")));
+        assertEquals(-1, maxLength(RegexParser.parse("a+b")));
+        assertEquals(-1, maxLength(RegexParser.parse("ab*|c")));
+    }
+
+    @Test
+    public void testInitialStateKeptApart() {
+        // Grouped by predecessors alone, the initial node of .*a.*b.* looked like the
+        // one past the "a", since both loop on any char, and any "b" matched.
+        final DFA<Character,PowerIntState> dfa = compileToBiDFA(
+                Arrays.asList(RegexParser.parse("a.*b"))).getForward();
+        assertTerminatesPatterns(dfa, "ab", true);
+        assertTerminatesPatterns(dfa, "cxab", true);
+        assertTerminatesPatterns(dfa, "b", false);
+        assertTerminatesPatterns(dfa, "cb", false);
+        assertEquals("[0@(0,2)]", compile("a.*b").match("ab", 1).getMatches().toString());
+        assertEquals("[]", compile("a.*b").match("cb", 1).getMatches().toString());
+    }
+
     private void assertTerminatesPatterns(
             final DFA<Character,PowerIntState> dfa, final String input, final boolean... terminatesWhichPatterns)
     {
@@ -1,17 +1,33 @@
 package org.jkff.ire.rope;
 
 import org.jkff.ire.DFABuilder;
+import org.jkff.ire.DFAMatcher;
+import org.jkff.ire.DFARopePatternSet;
+import org.jkff.ire.IndexedString;
+import org.jkff.ire.LinearIS;
 import org.jkff.ire.Match;
+import org.jkff.ire.MatchCursor;
+import org.jkff.ire.MatchList;
 import org.jkff.ire.NFABuilder;
 import org.jkff.ire.fa.BiDFA;
 import org.jkff.ire.fa.IntState;
 import org.jkff.ire.fa.PowerIntState;
+import org.jkff.ire.regex.RegexCompiler;
+import org.jkff.ire.util.WrappedBitSet;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.List;
+import java.util.Random;
 
 import static org.jkff.ire.util.CollectionFactory.newArrayList;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created on: 31.08.2010 8:20:00
@@ -74,6 +90,258 @@ public class RopeBasedISTest {
         assertEquals(4, matches.get(0).startPos());
     }
 
+    // Sets of patterns for comparing the strings with LinearIS. In the last ones, substates
+    // terminating a pattern lead on to other substates, so they aren't unanchored, see
+    // BiDFA#isUnanchored(), and the rope can't tell the matches from the sums alone.
+    private static final String[][] PATTERN_SETS = {
+            {"ab", "b+c", "cab", "a[bc]+d", "d"},
+            {"ab", "b+c", "cab", "a[bc]+d", "dd"},
+            {"x[abd]*c", "cb+"},
+            {"ab(cd)*"},
+            {"x(ab)*c?", "ba"},
+            {"a(bc)*", "cb+"},
+            {"(ab)+c*"},
+            {"a.*b"},
+    };
+
+    @Test
+    public void testQueriesAgreeWithLinearScan() {
+        final Random random = new Random(18);
+        for (final String[] patterns : PATTERN_SETS) {
+            final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile(patterns).getBiDFA();
+            for (final int blockSize : new int[] {1, 2, 4}) {
+                for (int i = 0; i < 20; ++i) {
+                    final String s = randomString(random, random.nextInt(80));
+                    assertQueriesAgree(bidfa, s, new RopeBasedIS<>(bidfa, s, blockSize), random);
+                    assertQueriesAgree(bidfa, s, new LinearIS<>(s, bidfa), random);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesAfterEdits() {
+        for (final String[] patterns : new String[][] {PATTERN_SETS[0], {"ab(cd)*", "x(ab)*c?", "ba"}}) {
+            final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile(patterns).getBiDFA();
+            final Random random = new Random(7);
+            String s = randomString(random, 2000);
+            IndexedString is = new RopeBasedIS<>(bidfa, s, 4);
+            assertEquals(new LinearIS<>(s, bidfa).getMatches().toString(), is.getMatchList().toString());
+            for (int edit = 0; edit < 100; ++edit) {
+                final int start = random.nextInt(s.length() + 1);
+                final int end = Math.min(s.length(), start + random.nextInt(20));
+                final String inserted = randomString(random, random.nextInt(20));
+                s = s.substring(0, start) + inserted + s.substring(end);
+                is = is.subSequence(0, start)
+                        .append(new RopeBasedIS<>(bidfa, inserted, 4))
+                        .append(is.subSequence(end, is.length()));
+                assertEquals(s, is.toString());
+                assertEquals(new LinearIS<>(s, bidfa).getMatches().toString(), is.getMatchList().toString());
+            }
+        }
+    }
+
+    @Test
+    public void testAcceptingStatesWithOutgoingEdges() {
+        // Once "ab" has matched, the automaton is reset, so "abcd" doesn't match.
+        assertEquals("[0@(0,2)]", RegexCompiler.compile("ab(cd)*").match("abcdx", 1).getMatches().toString());
+        assertFalse(RegexCompiler.compile("ab(cd)*").getBiDFA().isUnanchored());
+        assertEquals("[0@(0,2)]", RegexCompiler.compile("a.*b").match("ab", 1).getMatches().toString());
+        assertEquals("[]", RegexCompiler.compile("a.*b").match("cb", 1).getMatches().toString());
+        assertEquals("[]", RegexCompiler.compile("a[bcd]*c").match("cc", 1).getMatches().toString());
+    }
+
+    @Test
+    public void testCountMatchesPastResets() {
+        // Counting "abcd" after "ab" has matched would give 3.
+        assertArrayEquals(
+                new int[] {2}, RegexCompiler.compile("ab(cd)*").match("ccdxcabcdbabbaacdbcadbcxdbdb", 2).countMatches());
+        final IndexedString is = RegexCompiler.compile("x(ab)*c?", "ba").match("cdcxabdbcxaabccxxdccbxdcxabbaabc", 2);
+        assertArrayEquals(new int[] {2, 1}, is.countMatches(19, 30));
+    }
+
+    @Test
+    public void testMatchesInRangePastResets() {
+        // Scanning from the state folded before the range would also give 0@(5,4).
+        final IndexedString is = RegexCompiler.compile("ab(cd)*").match("dxaccabcdbadaxb", 1);
+        assertEquals("[0@(5,2)]", is.getMatches(0, 8, true).toString());
+        assertEquals("[0@(5,2)]", is.getMatches(0, 8).toString());
+        assertEquals("[0@(5,2)]", is.getMatches(6, 8, true).toString());
+    }
+
+    @Test
+    public void testFindPastResets() {
+        final DFARopePatternSet pat = RegexCompiler.compile("ab(cd)*");
+        assertEquals(null, pat.match("abcd", 1).findFirstAfter(3));
+        assertEquals(null, new LinearIS<>("abcd", pat.getBiDFA()).findFirstAfter(3));
+        // Descending into the last node with a match would end up scanning "abcd" alone.
+        assertEquals("0@(12,2)", String.valueOf(pat.match("aaxcccaxcaxdabcdba", 2).findLast()));
+    }
+
+    @Test
+    public void testMatchCursor() throws Exception {
+        final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile(
+                "ab", "b+c", "cab", "a[bc]+d", "d").getBiDFA();
+        final Random random = new Random(15);
+        final String s = randomString(random, 2000);
+        final MatchList all = new LinearIS<>(s, bidfa).getMatchList();
+        final IndexedString is = new RopeBasedIS<>(bidfa, s, 4);
+        for (int i = 0; i < 50; ++i) {
+            final int offset = random.nextInt(s.length() + 1);
+            final int first = all.firstEndingAfter(offset);
+            final MatchList page = new MatchList();
+            MatchCursor cursor = is.matchCursor(offset);
+            for (int j = first; j < all.size(); ++j) {
+                if (j - first == 7) {
+                    // Resume elsewhere from a serialized position.
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                        out.writeObject(cursor.getPosition());
+                    }
+                    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                        cursor = new LinearIS<>(s, bidfa).matchCursor((MatchCursor.Position) in.readObject());
+                    }
+                }
+                assertTrue(cursor.next(page));
+                assertEquals(all.get(j).toString(), page.get(page.size() - 1).toString());
+            }
+            assertFalse(cursor.next(page));
+        }
+    }
+
+    @Test
+    public void testFindFirstAndLast() {
+        final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile(
+                "ab", "b+c", "cab", "a[bc]+d", "dd").getBiDFA();
+        final Random random = new Random(16);
+        for (int i = 0; i < 50; ++i) {
+            final String s = randomString(random, random.nextInt(300));
+            final MatchList all = new LinearIS<>(s, bidfa).getMatchList();
+            for (final IndexedString is : new IndexedString[] {new LinearIS<>(s, bidfa), new RopeBasedIS<>(bidfa, s, 4)}) {
+                assertEquals(all.isEmpty() ? "null" : all.get(0).toString(), String.valueOf(is.findFirst()));
+                assertEquals(all.isEmpty() ? "null" : all.get(all.size() - 1).toString(), String.valueOf(is.findLast()));
+                for (int pattern = 0; pattern < 5; ++pattern) {
+                    final MatchList ofPattern = all.filter(pattern);
+                    assertEquals(
+                            ofPattern.isEmpty() ? "null" : ofPattern.get(0).toString(),
+                            String.valueOf(is.findFirst(pattern)));
+                }
+                final int offset = random.nextInt(s.length() + 1);
+                final int first = all.firstEndingAfter(offset);
+                assertEquals(
+                        (first == all.size()) ? "null" : all.get(first).toString(),
+                        String.valueOf(is.findFirstAfter(offset)));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesEndingTogether() {
+        final String[] patterns = {"abc", "bc", "c", "a[bd]*c", "x[abd]*c", "[ab]+c"};
+        final BiDFA<Character, PowerIntState> bidfa = RegexCompiler.compile(patterns).getBiDFA();
+        final Random random = new Random(17);
+        final StringBuilder sb = new StringBuilder(randomString(random, 500)).append('x');
+        for (int i = 0; i < 300; ++i) {
+            // Longer than the char by char scan, so that some starts are found over windows.
+            sb.append("ab");
+        }
+        final String s = sb.append("bc").append(randomString(random, 500)).toString();
+        final MatchList all = new LinearIS<>(s, bidfa).getMatchList();
+        for (int p = 0; p < patterns.length; ++p) {
+            // Each pattern alone finds its matches with a backward pass of its own.
+            final BiDFA<Character, PowerIntState> alone = RegexCompiler.compile(patterns[p]).getBiDFA();
+            final MatchList expected = new MatchList();
+            for (final Match m : new LinearIS<>(s, alone).getMatches()) {
+                expected.add(p, m.startPos(), m.length());
+            }
+            assertEquals(expected.toString(), all.filter(p).toString());
+        }
+        assertEquals(all.toString(), new RopeBasedIS<>(bidfa, s, 4).getMatchList().toString());
+    }
+
+    // Checks all the queries of the string against the matches of a scan from its start.
+    private static void assertQueriesAgree(
+            final BiDFA<Character, PowerIntState> bidfa, final String s, final IndexedString is, final Random random)
+    {
+        final String context = is.getClass().getSimpleName() + " over \"" + s + "\"";
+        final MatchList all = new LinearIS<>(s, bidfa).getMatchList();
+        assertEquals(context, all.toString(), is.getMatches().toString());
+        assertEquals(context, all.toString(), is.getMatchList().toString());
+        final MatchList pushed = new MatchList();
+        assertTrue(context, is.forEachMatch(pushed));
+        assertEquals(context, all.toString(), pushed.toString());
+        if (!all.isEmpty()) {
+            final MatchList first = new MatchList();
+            assertFalse(context, is.forEachMatch((pattern, start, length) -> {
+                first.add(pattern, start, length);
+                return false;
+            }));
+            assertEquals(context, 1, first.size());
+            assertEquals(context, all.get(0).toString(), first.get(0).toString());
+        }
+
+        final int[] counts = new int[bidfa.getNumPatterns()];
+        for (final Match m : all) {
+            ++counts[m.whichPattern()];
+        }
+        assertArrayEquals(context, counts, is.countMatches());
+        assertEquals(context, patternsWithMatches(new LinearIS<>(s, bidfa)), is.matchingPatterns());
+        assertEquals(context, !all.isEmpty(), is.containsMatch());
+        assertEquals(context, all.isEmpty() ? "null" : all.get(0).toString(), String.valueOf(is.findFirst()));
+        assertEquals(context, all.isEmpty() ? "null" : all.get(all.size() - 1).toString(), String.valueOf(is.findLast()));
+        for (int pattern = 0; pattern < counts.length; ++pattern) {
+            final MatchList ofPattern = all.filter(pattern);
+            assertEquals(context, ofPattern.isEmpty() ? "null" : ofPattern.get(0).toString(), String.valueOf(is.findFirst(pattern)));
+        }
+
+        for (int offset = 0; offset <= s.length(); ++offset) {
+            final int first = all.firstEndingAfter(offset);
+            assertEquals(
+                    context + " after " + offset,
+                    (first == all.size()) ? "null" : all.get(first).toString(),
+                    String.valueOf(is.findFirstAfter(offset)));
+            final MatchList rest = new MatchList();
+            for (int j = first; j < all.size(); ++j) {
+                rest.add(all.pattern(j), all.start(j), all.length(j));
+            }
+            final MatchList paged = new MatchList();
+            final MatchCursor cursor = is.matchCursor(offset);
+            while (cursor.next(paged)) {
+                // Collects them all
+            }
+            assertEquals(context + " after " + offset, rest.toString(), paged.toString());
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            final int start = random.nextInt(s.length() + 1);
+            final int end = start + random.nextInt(s.length() - start + 1);
+            final String range = context + " in " + start + ".." + end;
+            assertEquals(range, DFAMatcher.getMatches(all, start, end, false).toString(), is.getMatches(start, end).toString());
+            assertEquals(range, DFAMatcher.getMatches(all, start, end, true).toString(), is.getMatches(start, end, true).toString());
+            final LinearIS<PowerIntState> cut = new LinearIS<>(s.substring(start, end), bidfa);
+            assertArrayEquals(range, cut.countMatches(), is.countMatches(start, end));
+            assertEquals(range, patternsWithMatches(cut), is.matchingPatterns(start, end));
+        }
+    }
+
+    private static WrappedBitSet patternsWithMatches(final IndexedString is) {
+        final int[] counts = is.countMatches();
+        final WrappedBitSet res = new WrappedBitSet(counts.length);
+        for (int p = 0; p < counts.length; ++p) {
+            if (counts[p] > 0)
+                res.set(p);
+        }
+        return res;
+    }
+
+    private static String randomString(final Random random, final int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append("abcdx".charAt(random.nextInt(5)));
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testABorAConNFA() {
         final NFABuilder forward = new NFABuilder(5, 0, 2);
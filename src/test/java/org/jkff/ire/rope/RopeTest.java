@@ -4,7 +4,21 @@ import org.jkff.ire.fa.Sequence;
 import org.jkff.ire.util.*;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
 /**
@@ -24,9 +38,9 @@ public class RopeTest {
             return res.toString();
         }
     };
-    private static final Function<Character, String> SINGLETON_STRING = c -> "" + c;
+    private static final CharFunction<String> SINGLETON_STRING = c -> "" + c;
     private static final Function2<Integer,Rope<String>,Integer> ADD_LENGTH = (s, r) -> s + r.length();
-    private static final Function2<Integer,Character,Integer> INCREMENT = (s, character) -> s + 1;
+    private static final CharStepper<Integer> INCREMENT = (s, character) -> s + 1;
 
     @Test
     public void testToFromString() {
@@ -45,6 +59,45 @@ public class RopeTest {
         assertEquals("abcdefghijklmnopqrstuvwxyz", Rope.fromString(f, "abcdefghijklmnopqrstuvwxyz").getSum());
     }
 
+    @Test
+    public void testFromStringOfAnyLength() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; ++i) {
+            final String s = sb.toString();
+            final Rope<String> r = Rope.fromString(f, s);
+            assertEquals(s, r.toString());
+            assertEquals(s, r.getSum());
+            assertEquals(s.length(), r.length());
+            for (int j = 0; j < s.length(); ++j) {
+                assertEquals(s.charAt(j), r.charAt(j));
+            }
+            sb.append((char) ('a' + i % 26));
+        }
+    }
+
+    @Test
+    public void testFromStringInParallel() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 5000; ++i) {
+                sb.append((char) ('a' + i % 26));
+                if (i % 97 == 0 || i > 4990) {
+                    final String s = sb.toString();
+                    final Rope<String> r = Rope.fromString(f, s, pool);
+                    assertEquals(s, r.toString());
+                    assertEquals(s, r.getSum());
+                    assertEquals(s, r.append(Rope.fromString(f, "xyz", pool)).splitAfterRise(
+                            0, ADD_LENGTH, INCREMENT, x -> x >= s.length()).first.getSum());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testAppend() {
         final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
@@ -110,6 +163,180 @@ public class RopeTest {
         assertNull(r.splitAfterBackRise(0, ADD_LENGTH, INCREMENT, greaterThan(s.length())));
     }
 
+    @Test
+    public void testSplitsKeepSums() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final String s = "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz";
+        // Appending short pieces one by one produces plenty of 3-child nodes.
+        Rope<String> r = Rope.fromString(f, "");
+        for (int i = 0; i < s.length(); i += 5) {
+            r = r.append(Rope.fromString(f, s.substring(i, Math.min(s.length(), i + 5))));
+        }
+        for (int round = 0; round < 2; ++round) {
+            for (int i = 0; i <= s.length(); ++i) {
+                final Pair<Rope<String>,Rope<String>> p = r.splitAfterRise(0, ADD_LENGTH, INCREMENT, greaterThan(i-1));
+                assertEquals(s.substring(0, i), p.first.getSum());
+                assertEquals(s.substring(i), p.second.getSum());
+                final Pair<Rope<String>,Rope<String>> q = r.splitAfterBackRise(0, ADD_LENGTH, INCREMENT, greaterThan(i-1));
+                assertEquals(s.substring(0, s.length() - i), q.first.getSum());
+                assertEquals(s.substring(s.length() - i), q.second.getSum());
+                assertEquals(s, q.first.append(p.first.append(p.second)).splitAfterRise(
+                        0, ADD_LENGTH, INCREMENT, greaterThan(s.length() - i - 1)).second.getSum());
+            }
+        }
+    }
+
+    @Test
+    public void testReplace() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final Random random = new Random(5);
+        String s = "";
+        Rope<String> r = Rope.fromString(f, s);
+        for (int edit = 0; edit < 3000; ++edit) {
+            final int start = random.nextInt(s.length() + 1);
+            // Mostly typing and deleting a char or two, sometimes longer pieces.
+            final int maxLength = (random.nextInt(10) == 0) ? 20 : 3;
+            final int end = Math.min(s.length(), start + random.nextInt(maxLength));
+            final String text = "xyz\u0100abcdefghijklmnopqrstuvw".substring(0, random.nextInt(maxLength));
+            s = s.substring(0, start) + text + s.substring(end);
+            r = (edit % 3 == 0) ? r.delete(start, end).insert(start, text) : r.replace(start, end, text);
+            assertEquals(s, r.toString());
+            assertEquals(s, r.getSum());
+        }
+    }
+
+    @Test
+    public void testCursor() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final Random random = new Random(0);
+        for (final Rope<String> r : sampleRopes(f)) {
+            final String s = r.toString();
+            for (int start = 0; start <= s.length(); start += 7) {
+                final CharCursor cursor = r.cursor(start);
+                int pos = start;
+                for (int step = 0; step < 100; ++step) {
+                    assertEquals(pos, cursor.position());
+                    assertEquals(pos < s.length(), cursor.hasNext());
+                    assertEquals(pos > 0, cursor.hasPrev());
+                    final boolean forward = random.nextBoolean();
+                    if (forward && cursor.hasNext()) {
+                        assertEquals(s.charAt(pos++), cursor.next());
+                    } else if (!forward && cursor.hasPrev()) {
+                        assertEquals(s.charAt(--pos), cursor.prev());
+                    }
+                }
+            }
+            final CharCursor cursor = r.cursor(s.length());
+            for (int i = s.length() - 1; i >= 0; --i) {
+                assertEquals(s.charAt(i), cursor.prev());
+            }
+            assertFalse(cursor.hasPrev());
+            cursor.seek(s.length() / 2);
+            assertEquals(s.substring(s.length() / 2), readAll(cursor));
+        }
+    }
+
+    @Test
+    public void testGetChars() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        for (final Rope<String> r : sampleRopes(f)) {
+            final String s = r.toString();
+            for (int start = 0; start <= s.length(); start += 3) {
+                for (int end = start; end <= s.length(); end += 5) {
+                    final char[] dst = new char[end - start + 2];
+                    r.getChars(start, end, dst, 1);
+                    assertEquals(s.substring(start, end), new String(dst, 1, end - start));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChars() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        for (final Rope<String> r : sampleRopes(f)) {
+            final String s = r.toString();
+            assertEquals(s, toString(StreamSupport.intStream(r.spliterator(), false)));
+            assertEquals(s, toString(StreamSupport.intStream(r.spliterator(), true)));
+            assertEquals(s.length(), r.spliterator().estimateSize());
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        final String s = sb.toString();
+        assertEquals(s, toString(StreamSupport.intStream(Rope.fromString(f, s).spliterator(), true)));
+        final RopeFactory<String> big = new RopeFactory<>(4096, CONCAT, SINGLETON_STRING);
+        assertEquals(s, toString(StreamSupport.intStream(Rope.fromString(big, s).spliterator(), true)));
+    }
+
+    @Test
+    public void testNonLatin1Text() {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final String s = "abc\u0430\u0431\u0432defghijkl\u00e9\u00e8mnopq\u0433rstuvwxyz";
+        for (int i = 0; i <= s.length(); ++i) {
+            final Rope<String> r = Rope.fromString(f, s.substring(0, i)).append(Rope.fromString(f, s.substring(i)));
+            assertEquals(s, r.toString());
+            assertEquals(s, r.getSum());
+            final Pair<Rope<String>,Rope<String>> p = r.splitAfterRise(0, ADD_LENGTH, INCREMENT, greaterThan(i-1));
+            assertEquals(s.substring(0, i), p.first.toString());
+            assertEquals(s.substring(i), p.second.getSum());
+        }
+    }
+
+    @Test
+    public void testFromFile() throws IOException {
+        final RopeFactory<String> f = new RopeFactory<>(4, CONCAT, SINGLETON_STRING);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            sb.append("abcdefghijklmnopqrstuvwxyz").append("\u0430\u0431\u0432\u00e9").append("\ud83d\ude00");
+        }
+        final Path file = Files.createTempFile("rope", ".txt");
+        try {
+            for (final String s : new String[] {"", "a", "\u0430", sb.toString()}) {
+                Files.write(file, s.getBytes(StandardCharsets.UTF_8));
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final Rope<String> r = Rope.fromFile(f, channel, null);
+                    assertEquals(s, r.toString());
+                    assertEquals(s, r.getSum());
+                    assertEquals(s.length(), r.length());
+                    final Pair<Rope<String>,Rope<String>> p = r.splitAfterRise(
+                            0, ADD_LENGTH, INCREMENT, greaterThan(s.length() / 2 - 1));
+                    assertEquals(s.substring(0, s.length() / 2), p.first.getSum());
+                    assertEquals(s.substring(s.length() / 2), p.second.toString());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Rope<String>> sampleRopes(final RopeFactory<String> f) {
+        final String s = "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz";
+        final List<Rope<String>> res = new ArrayList<>();
+        res.add(Rope.fromString(f, ""));
+        res.add(Rope.fromString(f, "a"));
+        res.add(Rope.fromString(f, s));
+        Rope<String> r = Rope.fromString(f, "");
+        for (int i = 0; i < s.length(); i += 3) {
+            r = r.append(Rope.fromString(f, s.substring(i, Math.min(s.length(), i + 3))));
+        }
+        res.add(r);
+        return res;
+    }
+
+    private static String readAll(final CharCursor cursor) {
+        final StringBuilder res = new StringBuilder();
+        while (cursor.hasNext()) {
+            res.append(cursor.next());
+        }
+        return res.toString();
+    }
+
+    private static String toString(final IntStream chars) {
+        return chars.collect(StringBuilder::new, (sb, c) -> sb.append((char) c), StringBuilder::append).toString();
+    }
+
     private static Predicate<Integer> greaterThan(final int x) {
         return i -> i > x;
     }
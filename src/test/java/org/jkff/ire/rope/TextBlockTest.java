@@ -0,0 +1,55 @@
+package org.jkff.ire.rope;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on: 18.10.2026 19:58:12
+ */
+public class TextBlockTest {
+    private static final String LATIN1 = "abcdefghij\u00e9\u00ff";
+    private static final String WIDE = "\u0430\u0431\u0432abc\u0433";
+
+    @Test
+    public void testViews() {
+        for (final String s : new String[] {"", LATIN1, WIDE}) {
+            final TextBlock t = TextBlock.of(s);
+            assertEquals(s, t.toString());
+            for (int start = 0; start <= s.length(); ++start) {
+                for (int end = start; end <= s.length(); ++end) {
+                    final TextBlock sub = t.subSequence(start, end);
+                    assertEquals(s.substring(start, end), sub.toString());
+                    assertEquals(end - start, sub.length());
+                    final char[] dst = new char[end - start];
+                    sub.getChars(0, sub.length(), dst, 0);
+                    assertEquals(s.substring(start, end), new String(dst));
+                    final StringBuilder sb = new StringBuilder();
+                    sub.appendTo(sb);
+                    assertEquals(s.substring(start, end), sb.toString());
+                    for (int i = 0; i < sub.length(); ++i) {
+                        assertEquals(s.charAt(start + i), sub.charAt(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcat() {
+        final String[] strings = {"", LATIN1, WIDE};
+        for (final String a : strings) {
+            for (final String b : strings) {
+                assertEquals(a + b, TextBlock.of(a).concat(TextBlock.of(b)).toString());
+                assertEquals(a.substring(a.length() / 2) + b.substring(1 % (b.length() + 1)),
+                        TextBlock.of(a).subSequence(a.length() / 2, a.length())
+                                .concat(TextBlock.of(b).subSequence(1 % (b.length() + 1), b.length())).toString());
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testViewDoesNotExposeBackingArray() {
+        TextBlock.of(LATIN1).subSequence(2, 4).charAt(2);
+    }
+}
@@ -0,0 +1,106 @@
+package org.jkff.ire.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.jkff.ire.util.CollectionFactory.newLinkedHashMap;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created on: 18.10.2026 14:02:55
+ */
+public class CoarsestPartitionTest {
+    @Test
+    public void testStablePartitionIsUnchanged() {
+        // 0 -> 1 -> 2 -> 0, all in different blocks.
+        final int[] p = {5, 3, 7};
+        final int[][] edges = {{0, 1}, {1, 2}, {2, 0}};
+        assertArrayEquals(p, CoarsestPartition.coarsestStablePartition(p, edges));
+    }
+
+    @Test
+    public void testChain() {
+        // 0 -> 1 -> 2 -> 3: only the positions in the chain distinguish the states.
+        final int[] p = {0, 0, 0, 0};
+        final int[][] edges = {{0, 1}, {1, 2}, {2, 3}};
+        final int[] q = CoarsestPartition.coarsestStablePartition(p, edges);
+        assertEquals(4, countBlocks(q));
+    }
+
+    @Test
+    public void testAgreesWithNaiveRefinement() {
+        final Random r = new Random(1);
+        for (int iter = 0; iter < 2000; ++iter) {
+            final int n = 1 + r.nextInt(12);
+            final int[] p = new int[n];
+            final int numInitialBlocks = 1 + r.nextInt(3);
+            for (int i = 0; i < n; ++i) {
+                p[i] = 2 * r.nextInt(numInitialBlocks);
+            }
+            final int[][] edges = new int[r.nextInt(3 * n)][];
+            for (int e = 0; e < edges.length; ++e) {
+                edges[e] = new int[] {r.nextInt(n), r.nextInt(n)};
+            }
+            final int[] expected = naive(p, edges);
+            final int[] actual = CoarsestPartition.coarsestStablePartition(p, edges);
+            assertArrayEquals(Arrays.toString(p) + " " + Arrays.deepToString(edges),
+                    canonical(expected), canonical(actual));
+        }
+    }
+
+    private static int countBlocks(final int[] q) {
+        return (int) Arrays.stream(q).distinct().count();
+    }
+
+    // Renumbers blocks in the order of their first element.
+    private static int[] canonical(final int[] q) {
+        final Map<Integer, Integer> names = newLinkedHashMap();
+        final int[] res = new int[q.length];
+        for (int i = 0; i < q.length; ++i) {
+            Integer name = names.get(q[i]);
+            if (name == null) {
+                names.put(q[i], name = names.size());
+            }
+            res[i] = name;
+        }
+        return res;
+    }
+
+    // Splits blocks by predecessor sets of other blocks until nothing changes.
+    private static int[] naive(final int[] p, final int[][] edges) {
+        int[] q = canonical(p);
+        while (true) {
+            final int numBlocks = countBlocks(q);
+            final long[] signature = new long[q.length];
+            for (int x = 0; x < q.length; ++x) {
+                signature[x] = q[x];
+            }
+            for (int b = 0; b < numBlocks; ++b) {
+                final boolean[] pre = new boolean[q.length];
+                for (final int[] edge : edges) {
+                    if (q[edge[1]] == b) pre[edge[0]] = true;
+                }
+                for (int x = 0; x < q.length; ++x) {
+                    signature[x] = 31 * signature[x] + (pre[x] ? 1 : 0);
+                }
+            }
+            final Map<Long, Integer> names = newLinkedHashMap();
+            final int[] next = new int[q.length];
+            for (int x = 0; x < q.length; ++x) {
+                Integer name = names.get(signature[x]);
+                if (name == null) {
+                    names.put(signature[x], name = names.size());
+                }
+                next[x] = name;
+            }
+            if (countBlocks(next) == numBlocks) {
+                return q;
+            }
+            q = next;
+        }
+    }
+}